@@ -0,0 +1,353 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import org.json.JSONObject;
+
+import com.cloudplugs.util.Listener;
+
+/**
+ * @brief Circuit breaker stopping a spooler from sending requests to a base URL which is failing or too slow.
+ * The breaker is closed while the endpoint is healthy: it records the outcome of the last <tt>window</tt> requests
+ * and, once at least <tt>minCalls</tt> have been recorded, it opens when the rate of failures (connection errors,
+ * timeouts, 429 and 5xx responses) or the rate of calls slower than <tt>slowCall</tt> milliseconds reaches its
+ * threshold.
+ * While open, requests are not sent at all: they fail fast with a {@link Const#ERR_OPEN} response or, when parking
+ * is enabled, they are scheduled again in their spooler until the breaker lets them through or their deadline
+ * expires. After <tt>openTime</tt> milliseconds the breaker becomes half-open and lets <tt>probes</tt> requests
+ * through: it closes if all of them succeed in time and it opens again at the first failure or slow call.
+ * Each state change is emitted as an {@link #EVT_BREAKER} event whose value is the name of the new state; events are
+ * emitted in the order of the changes, while holding the lock of the breaker, so their listeners must not block.
+ * Each state change also starts a new generation of permits: the outcome of a request permitted before the change
+ * is ignored, so a slow request sent while closed cannot close or reopen the breaker after it has changed state.
+ * A breaker instance holds the state of a single base URL; the one set in {@link Opts} is copied for each spooler.
+ */
+public class CircuitBreaker
+{
+	/** Event emitted by a spooler when the state of its breaker changes, the value is the name of the new state. */
+	public static final String EVT_BREAKER = "breaker";
+
+	/** State letting all requests through. */
+	public static final int CLOSED    = 0;
+	/** State failing or parking all requests. */
+	public static final int OPEN      = 1;
+	/** State letting a few probe requests through. */
+	public static final int HALF_OPEN = 2;
+
+	/** The default number of outcomes recorded while closed. */
+	public static final int     DEF_WINDOW       = Const.DEFAULT_BREAKER_WINDOW;
+	/** The default minimum number of outcomes recorded before opening. */
+	public static final int     DEF_MIN_CALLS    = Const.DEFAULT_BREAKER_MIN_CALLS;
+	/** The default failure rate opening the breaker. */
+	public static final double  DEF_FAILURE_RATE = Const.DEFAULT_BREAKER_FAILURE_RATE;
+	/** The default duration in milliseconds over which a call is slow. */
+	public static final long    DEF_SLOW_CALL    = Const.DEFAULT_BREAKER_SLOW_CALL;
+	/** The default slow call rate opening the breaker. */
+	public static final double  DEF_SLOW_RATE    = Const.DEFAULT_BREAKER_SLOW_RATE;
+	/** The default milliseconds spent open before probing the endpoint. */
+	public static final long    DEF_OPEN_TIME    = Const.DEFAULT_BREAKER_OPEN_TIME;
+	/** The default number of probe requests while half-open. */
+	public static final int     DEF_PROBES       = Const.DEFAULT_BREAKER_PROBES;
+	/** The default parking mode. */
+	public static final boolean DEF_PARK         = Const.DEFAULT_BREAKER_PARK;
+
+	/** Key name of the window size when importing or exporting a breaker to JSON. */
+	public static final String K_WINDOW       = "window";
+	/** Key name of the minimum number of calls when importing or exporting a breaker to JSON. */
+	public static final String K_MIN_CALLS    = "minCalls";
+	/** Key name of the failure rate threshold when importing or exporting a breaker to JSON. */
+	public static final String K_FAILURE_RATE = "failureRate";
+	/** Key name of the slow call duration when importing or exporting a breaker to JSON. */
+	public static final String K_SLOW_CALL    = "slowCall";
+	/** Key name of the slow call rate threshold when importing or exporting a breaker to JSON. */
+	public static final String K_SLOW_RATE    = "slowRate";
+	/** Key name of the open time when importing or exporting a breaker to JSON. */
+	public static final String K_OPEN_TIME    = "openTime";
+	/** Key name of the number of probes when importing or exporting a breaker to JSON. */
+	public static final String K_PROBES       = "probes";
+	/** Key name of the parking mode when importing or exporting a breaker to JSON. */
+	public static final String K_PARK         = "park";
+
+	/**
+	 * Create a new closed breaker with the default settings.
+	 */
+	public CircuitBreaker() {
+		this(DEF_WINDOW, DEF_MIN_CALLS, DEF_FAILURE_RATE, DEF_SLOW_CALL, DEF_SLOW_RATE, DEF_OPEN_TIME, DEF_PROBES, DEF_PARK);
+	}
+
+	/**
+	 * Create a new closed breaker.
+	 * @param window the number of outcomes recorded while closed, at least 1
+	 * @param minCalls the minimum number of outcomes recorded before opening, between 1 and <tt>window</tt>
+	 * @param failureRate the failure rate opening the breaker, from 0 (exclusive) to 1
+	 * @param slowCall the duration in milliseconds over which a call is slow, 0 or less to ignore latency
+	 * @param slowRate the slow call rate opening the breaker, from 0 (exclusive) to 1
+	 * @param openTime the milliseconds spent open before probing the endpoint, at least 1
+	 * @param probes the number of probe requests while half-open, at least 1
+	 * @param park true to park the requests while open, false to fail them fast
+	 */
+	public CircuitBreaker(int window, int minCalls, double failureRate, long slowCall, double slowRate, long openTime,
+	                      int probes, boolean park) {
+		this.window      = Math.max(window, 1);
+		this.minCalls    = Math.min(Math.max(minCalls, 1), this.window);
+		this.failureRate = failureRate>0 && failureRate<=1 ? failureRate : DEF_FAILURE_RATE;
+		this.slowCall    = Math.max(slowCall, 0);
+		this.slowRate    = slowRate>0 && slowRate<=1 ? slowRate : DEF_SLOW_RATE;
+		this.openTime    = Math.max(openTime, 1);
+		this.probes      = Math.max(probes, 1);
+		this.park        = park;
+		this.outcomes    = new byte[this.window];
+	}
+
+	/**
+	 * Create a new closed breaker with the settings of another one.
+	 * @param breaker the breaker to copy the settings from
+	 */
+	public CircuitBreaker(CircuitBreaker breaker) {
+		this(breaker.window, breaker.minCalls, breaker.failureRate, breaker.slowCall, breaker.slowRate, breaker.openTime,
+		     breaker.probes, breaker.park);
+	}
+
+	/**
+	 * Create a new closed breaker from its JSON representation; missing keys get the default values.
+	 * @param jso the JSON representation of the breaker, as produced by {@link #toJSON()}
+	 */
+	public CircuitBreaker(JSONObject jso) {
+		this(jso.optInt(K_WINDOW, DEF_WINDOW), jso.optInt(K_MIN_CALLS, DEF_MIN_CALLS),
+		     jso.optDouble(K_FAILURE_RATE, DEF_FAILURE_RATE), jso.optLong(K_SLOW_CALL, DEF_SLOW_CALL),
+		     jso.optDouble(K_SLOW_RATE, DEF_SLOW_RATE), jso.optLong(K_OPEN_TIME, DEF_OPEN_TIME),
+		     jso.optInt(K_PROBES, DEF_PROBES), jso.optBoolean(K_PARK, DEF_PARK));
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	public int getMinCalls() {
+		return minCalls;
+	}
+
+	public double getFailureRate() {
+		return failureRate;
+	}
+
+	public long getSlowCall() {
+		return slowCall;
+	}
+
+	public double getSlowRate() {
+		return slowRate;
+	}
+
+	public long getOpenTime() {
+		return openTime;
+	}
+
+	public int getProbes() {
+		return probes;
+	}
+
+	/**
+	 * @return true if the requests are parked while open, false if they fail fast
+	 */
+	public boolean isParking() {
+		return park;
+	}
+
+	/**
+	 * @return the current state: {@link #CLOSED}, {@link #OPEN} or {@link #HALF_OPEN}
+	 */
+	public synchronized int getState() {
+		return state;
+	}
+
+	/**
+	 * @param state a state of the breaker
+	 * @return the name of the state, as emitted by the {@link #EVT_BREAKER} events
+	 */
+	public static String getName(int state) {
+		return NAMES[state];
+	}
+
+	/**
+	 * @return the number of requests rejected so far because this breaker was not closed
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @param status the status of a response
+	 * @return true if the status counts as a failure of the endpoint
+	 */
+	public static boolean isFailure(int status) {
+		return status==Const.ERR_CONN || status==Const.ERR_TIMEOUT || status==Response.ERR_TOO_MANY
+		    || status>=Response.ERR_INTERNAL;
+	}
+
+	/**
+	 * Ask the permission to send a request; a permitted request must be followed by a call to
+	 * {@link #record(long, int, long)} or {@link #release(long)} with the returned permit.
+	 * @return the permit of the request, that is the generation of the current state, or -1 if the request must not
+	 *         be sent
+	 */
+	public synchronized long acquire() {
+		if(state==OPEN && System.currentTimeMillis()>=openUntil) {
+			inFlight = 0;
+			passed   = 0;
+			transition(HALF_OPEN);
+		}
+		if(state==CLOSED || (state==HALF_OPEN && inFlight+passed<probes)) {
+			if(state == HALF_OPEN) ++inFlight;
+			return generation;
+		}
+		++rejected;
+		return -1;
+	}
+
+	/**
+	 * Give back the permission of a request which has not been sent after all, or whose outcome is not significant,
+	 * like a cancelled one.
+	 * @param permit the permit returned by {@link #acquire()}, ignored if the state has changed since then
+	 */
+	public synchronized void release(long permit) {
+		if(permit==generation && state==HALF_OPEN && inFlight>0) --inFlight;
+	}
+
+	/**
+	 * Record the outcome of a permitted request.
+	 * @param permit the permit returned by {@link #acquire()}, the outcome is ignored if the state has changed since
+	 *               then
+	 * @param status the status of the response
+	 * @param millis the duration of the exchange in milliseconds
+	 */
+	public synchronized void record(long permit, int status, long millis) {
+		if(permit != generation) return;
+		boolean failed = isFailure(status);
+		boolean slow   = slowCall>0 && millis>slowCall;
+		if(state == CLOSED) {
+			byte old = outcomes[pos];
+			if(calls == window) {
+				if((old & FAILED) != 0) --failures;
+				if((old & SLOW) != 0) --slows;
+			} else {
+				++calls;
+			}
+			outcomes[pos] = (byte)((failed ? FAILED : 0) | (slow ? SLOW : 0));
+			if(failed) ++failures;
+			if(slow) ++slows;
+			pos = (pos + 1) % window;
+			if(calls>=minCalls && (failures>=failureRate*calls || slows>=slowRate*calls)) open();
+		} else if(state == HALF_OPEN) {
+			if(inFlight > 0) --inFlight;
+			if(failed || slow) open();
+			else if(++passed>=probes && inFlight==0) close();
+		}
+	}
+
+	/**
+	 * @return the milliseconds a parked request should wait before trying again
+	 */
+	public synchronized long getParkDelay() {
+		if(state == OPEN) return Math.max(openUntil - System.currentTimeMillis(), 1);
+		return Math.max(openTime / PROBE_WAIT, 1);
+	}
+
+	/**
+	 * Bind this breaker to the listener receiving its {@link #EVT_BREAKER} events.
+	 */
+	void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Export this breaker settings as a JSON object.
+	 * @return the JSON representation of this breaker
+	 */
+	public JSONObject toJSON() {
+		try {
+			JSONObject jso = new JSONObject();
+			jso.put(K_WINDOW      , window);
+			jso.put(K_MIN_CALLS   , minCalls);
+			jso.put(K_FAILURE_RATE, failureRate);
+			jso.put(K_SLOW_CALL   , slowCall);
+			jso.put(K_SLOW_RATE   , slowRate);
+			jso.put(K_OPEN_TIME   , openTime);
+			jso.put(K_PROBES      , probes);
+			jso.put(K_PARK        , park);
+			return jso;
+		} catch(Exception e) {
+			throw new RestException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toJSON().toString();
+	}
+
+	private void open() {
+		openUntil = System.currentTimeMillis() + openTime;
+		transition(OPEN);
+	}
+
+	private void close() {
+		calls = failures = slows = pos = 0;
+		transition(CLOSED);
+	}
+
+	/**
+	 * Change state, starting a new generation of permits, and emit the change; called while holding the lock.
+	 */
+	private void transition(int state) {
+		this.state = state;
+		++generation;
+		Listener l = listener;
+		if(l != null) l.onEvt(EVT_BREAKER, NAMES[state]);
+	}
+
+	private static final String[] NAMES      = { "closed", "open", "half-open" };
+	private static final byte     FAILED     = 1;
+	private static final byte     SLOW       = 2;
+	private static final long     PROBE_WAIT = 10;
+
+	private final int         window;
+	private final int         minCalls;
+	private final double      failureRate;
+	private final long        slowCall;
+	private final double      slowRate;
+	private final long        openTime;
+	private final int         probes;
+	private final boolean     park;
+	private final byte[]      outcomes;
+	private int               state = CLOSED;
+	private int               pos;
+	private int               calls;
+	private int               failures;
+	private int               slows;
+	private int               inFlight;
+	private int               passed;
+	private long              openUntil;
+	private long              rejected;
+	private long              generation;
+	private volatile Listener listener;
+}
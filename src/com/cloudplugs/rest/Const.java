@@ -29,12 +29,51 @@ public class Const
 {
 	public static final String  DEFAULT_URL = "https://api.cloudplugs.com/iot/";
 
-	public static final String  DEFAULT_AUTHID   = null;
-	public static final String  DEFAULT_AUTHPASS = null;
-	public static final boolean DEFAULT_MASTER   = false;
-	public static final int     DEFAULT_TIMEOUT  = 60;
+	public static final String  DEFAULT_AUTHID           = null;
+	public static final String  DEFAULT_AUTHPASS         = null;
+	public static final boolean DEFAULT_MASTER           = false;
+	public static final int     DEFAULT_TIMEOUT          = 60;
+	public static final int     DEFAULT_WORKERS          = 1;
+	public static final boolean DEFAULT_VIRTUAL          = false;
+	public static final int     DEFAULT_INFLIGHT         = 1024;
+	public static final String  DEFAULT_LANE             = null;
+	public static final int     DEFAULT_CAPACITY         = 0;
+	public static final String  DEFAULT_OVERFLOW         = "block";
+	public static final long    DEFAULT_OVERFLOW_TIMEOUT = 0;
+	public static final String  DEFAULT_IDLE             = "block";
+	public static final int     DEFAULT_BATCH            = 1;
+	public static final boolean DEFAULT_COALESCE         = false;
+	public static final boolean DEFAULT_HTTP2            = false;
+	public static final int     DEFAULT_STREAMS          = 100;
+	public static final int     DEFAULT_WINDOW           = 0;
+	public static final int     DEFAULT_FRAME            = 0;
+	public static final boolean DEFAULT_COMPRESS         = false;
+	public static final int     DEFAULT_COMPRESS_MIN     = 1024;
+	public static final int     DEFAULT_COMPRESS_LEVEL   = 6;
+	public static final int     DEFAULT_KEEPALIVE        = 0;
+	public static final long    DEFAULT_KEEPALIVE_PERIOD = 4000;
+	public static final int     DEFAULT_SESSION_CACHE    = 0;
+	public static final int     DEFAULT_SESSION_TIMEOUT  = 0;
+	public static final int     DEFAULT_RETRY_ATTEMPTS   = 3;
+	public static final long    DEFAULT_RETRY_DELAY      = 200;
+	public static final long    DEFAULT_RETRY_MAX_DELAY  = 10000;
+	public static final int     DEFAULT_RETRY_BUDGET     = 10;
+	public static final double  DEFAULT_RETRY_REFILL     = 0.1;
+	public static final int     DEFAULT_BREAKER_WINDOW   = 20;
+	public static final int     DEFAULT_BREAKER_MIN_CALLS = 5;
+	public static final double  DEFAULT_BREAKER_FAILURE_RATE = 0.5;
+	public static final long    DEFAULT_BREAKER_SLOW_CALL = 10000;
+	public static final double  DEFAULT_BREAKER_SLOW_RATE = 0.8;
+	public static final long    DEFAULT_BREAKER_OPEN_TIME = 30000;
+	public static final int     DEFAULT_BREAKER_PROBES   = 1;
+	public static final boolean DEFAULT_BREAKER_PARK     = false;
 
-	public static final int ERR_CONN = -1;
+	public static final int ERR_CONN       = -1;
+	public static final int ERR_DROPPED    = -2;
+	public static final int ERR_CANCELLED  = -3;
+	public static final int ERR_SUPERSEDED = -4;
+	public static final int ERR_TIMEOUT    = -5;
+	public static final int ERR_OPEN       = -6;
 
 	public static final String HEADER_PLUGID = "X-Plug-Id";
 	public static final String HEADER_EMAIL  = "X-Plug-Email";
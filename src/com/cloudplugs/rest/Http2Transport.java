@@ -0,0 +1,169 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.net.SocketTimeoutException;
+import java.net.http.HttpClient;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import com.cloudplugs.util.SSL;
+
+/**
+ * @brief HTTP/2 transport multiplexing the concurrent requests to a host as streams of a single connection.
+ * The requests are sent through a client forced to HTTP/2: over HTTPS the protocol is negotiated by ALPN, over plain
+ * HTTP the first request upgrades the connection to h2c. A server not supporting HTTP/2 is still served by HTTP/1.1.
+ * The number of streams in flight is bounded (see {@link #getMaxStreams()}): a request exceeding the bound waits for
+ * a free stream within its deadline, so that the server limit on concurrent streams is never hit.
+ * A transport does not send anything by itself in parallel: the spooler must run many jobs at once, as configured by
+ * {@link Opts#enableHttp2(boolean)}.
+ */
+public class Http2Transport extends HttpClientTransport
+{
+	/** The default maximum number of concurrent streams. */
+	public static final int DEF_MAX_STREAMS = Const.DEFAULT_STREAMS;
+
+	/**
+	 * Create a new transport with the default settings.
+	 */
+	public Http2Transport() {
+		this(DEF_MAX_STREAMS, 0, 0);
+	}
+
+	/**
+	 * Create a new transport with its own client following redirects.
+	 * The flow-control settings are process-wide: they are applied only by the first transport created in the process
+	 * (see {@link #setFlowControl(int, int, int)}), the settings of the later ones are ignored.
+	 * @param maxStreams the maximum number of concurrent streams, values lower than 1 mean {@link #DEF_MAX_STREAMS}
+	 * @param windowSize the initial flow-control window of each stream in bytes (the window of the connection is
+	 *                   large enough for all the streams), 0 or less to keep the JDK default
+	 * @param frameSize the maximum size of the frames the server may send in bytes, 0 or less to keep the JDK default
+	 */
+	public Http2Transport(int maxStreams, int windowSize, int frameSize) {
+		this(maxStreams, windowSize, frameSize, null);
+	}
+
+	/**
+	 * Like {@link #Http2Transport(int, int, int)}, but using the given SSL context.
+	 * @param context the SSL context of the client, for instance from {@link SSL#newContext(int, int)}, or null for
+	 *                the JDK default
+	 */
+	public Http2Transport(int maxStreams, int windowSize, int frameSize, SSLContext context) {
+		this(newClient(maxStreams<1 ? DEF_MAX_STREAMS : maxStreams, windowSize, frameSize, context), maxStreams);
+	}
+
+	/**
+	 * Create a new transport using the given client.
+	 * @param client the client sending the requests, it should prefer {@link HttpClient.Version#HTTP_2}
+	 * @param maxStreams the maximum number of concurrent streams, values lower than 1 mean {@link #DEF_MAX_STREAMS}
+	 */
+	public Http2Transport(HttpClient client, int maxStreams) {
+		super(client);
+		this.maxStreams = maxStreams<1 ? DEF_MAX_STREAMS : maxStreams;
+		this.streams    = new Semaphore(this.maxStreams, true);
+	}
+
+	/**
+	 * Set the flow-control settings of the HTTP/2 connections of the JDK HTTP client, once per process.
+	 * The JDK HTTP client has no such settings per client: they are system properties read by the JDK when its HTTP/2
+	 * support is first used, so they are shared by all the clients of the JVM and they are ignored if set later.
+	 * Only the first call (or the first transport created with flow-control settings) applies them, preferably at
+	 * startup; properties already set, like on the command line, are kept.
+	 * @param windowSize the initial flow-control window of each stream in bytes, 0 or less to keep the JDK default
+	 * @param frameSize the maximum size of the frames the server may send in bytes, 0 or less to keep the JDK default
+	 * @param maxStreams the number of concurrent streams, used to size the window of the connection
+	 * @return true if the settings have been applied, false if the ones of a previous call are in effect
+	 */
+	public static synchronized boolean setFlowControl(int windowSize, int frameSize, int maxStreams) {
+		if(flowControlSet) return false;
+		flowControlSet = true;
+		if(windowSize > 0) {
+			long connWindow = (long)windowSize * Math.max(maxStreams, 1);
+			setPropertyIfAbsent(PROP_WINDOW, windowSize);
+			setPropertyIfAbsent(PROP_CONN_WINDOW, (int)Math.min(Integer.MAX_VALUE, connWindow));
+		}
+		if(frameSize > 0) setPropertyIfAbsent(PROP_FRAME, frameSize);
+		return true;
+	}
+
+	/**
+	 * @return the maximum number of requests in flight at the same time
+	 */
+	public int getMaxStreams() {
+		return maxStreams;
+	}
+
+	/**
+	 * @return the number of requests currently in flight
+	 */
+	public int getActiveStreams() {
+		return maxStreams - streams.availablePermits();
+	}
+
+	@Override
+	public Response send(Request request, int timeout, RestJob job) {
+		try {
+			long deadline = request.getDeadline();
+			if(deadline > 0) {
+				if(!streams.tryAcquire(UrlConnectionTransport.remaining(deadline), TimeUnit.MILLISECONDS))
+					return new Response(Const.ERR_TIMEOUT, ERR_NO_STREAM, null);
+			} else {
+				streams.acquire();
+			}
+		} catch(SocketTimeoutException e) {
+			return new Response(Const.ERR_TIMEOUT, e.getMessage(), null);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Response(Const.ERR_CONN, e.getMessage(), null);
+		}
+		try {
+			return super.send(request, timeout, job);
+		} finally {
+			streams.release();
+		}
+	}
+
+	private static void setPropertyIfAbsent(String name, int value) {
+		if(System.getProperty(name) == null) System.setProperty(name, String.valueOf(value));
+	}
+
+	private static HttpClient newClient(int maxStreams, int windowSize, int frameSize, SSLContext context) {
+		if(windowSize>0 || frameSize>0) setFlowControl(windowSize, frameSize, maxStreams);
+		HttpClient.Builder builder = HttpClient.newBuilder()
+		                                       .version(HttpClient.Version.HTTP_2)
+		                                       .followRedirects(HttpClient.Redirect.NORMAL);
+		if(context != null) builder.sslContext(context);
+		return builder.build();
+	}
+
+	private static final String ERR_NO_STREAM    = "deadline expired waiting for a stream";
+	private static final String PROP_WINDOW      = "jdk.httpclient.windowsize";
+	private static final String PROP_CONN_WINDOW = "jdk.httpclient.connectionWindowSize";
+	private static final String PROP_FRAME       = "jdk.httpclient.maxframesize";
+
+	private static boolean flowControlSet;
+
+	private final int       maxStreams;
+	private final Semaphore streams;
+}
@@ -0,0 +1,191 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.cloudplugs.util.Compression;
+import com.cloudplugs.util.PlugException;
+
+/**
+ * @brief HTTP transport based on java.net.http.HttpClient, available since Java 11.
+ * Unlike {@link UrlConnectionTransport}, it sends PATCH and DELETE with a body as they are, it reuses connections
+ * through the pool of its client and it negotiates HTTP/2 when the server supports it.
+ * The timeout of a request without deadline bounds the whole exchange, not only the connection.
+ * HttpClient does not expose the HTTP reason phrase, so the message of its responses is empty.
+ * A streamed response body (see {@link RestCallback.Streaming}) is bounded by the deadline only until its headers
+ * are received.
+ * The connection setup is not observable through HttpClient, so the timing of its responses (see {@link Timing})
+ * counts it in the time to first byte.
+ */
+public class HttpClientTransport implements Transport
+{
+	/**
+	 * Create a new transport with its own client following redirects.
+	 */
+	public HttpClientTransport() {
+		this(HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build());
+	}
+
+	/**
+	 * Create a new transport using the given client.
+	 * @param client the client sending the requests, for example configured with a custom SSL context
+	 */
+	public HttpClientTransport(HttpClient client) {
+		if(client == null) throw new NullPointerException("null client");
+		this.client = client;
+	}
+
+	public HttpClient getClient() {
+		return client;
+	}
+
+	@Override
+	public Response send(Request request, int timeout, RestJob job) {
+		Timing timing = new Timing();
+		return exchange(request, timeout, job, timing).setTiming(timing);
+	}
+
+	private Response exchange(Request request, int timeout, RestJob job, Timing timing) {
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()));
+			long deadline = request.getDeadline();
+			if(deadline > 0) builder.timeout(Duration.ofMillis(UrlConnectionTransport.remaining(deadline)));
+			else if(timeout > 0) builder.timeout(Duration.ofSeconds(timeout));
+
+			String[] headers = request.getHeaders();
+			if(headers != null)
+				for(int i=1, n=headers.length; i<n; i+=2)
+					builder.header(headers[i-1], headers[i]);
+			builder.header("Accept", "application/json");
+			builder.header("User-Agent", Const.USER_AGENT);
+
+			byte[] body = request.getEncodedBody();
+			if(body!=null && body.length>0) {
+				builder.header("Content-Type", "application/json");
+				if(request.getContentEncoding() != null) builder.header("Content-Encoding", request.getContentEncoding());
+				builder.method(request.getMethod(), HttpRequest.BodyPublishers.ofByteArray(body));
+			} else {
+				builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+			}
+
+			if(job!=null && job.isStreaming()) {
+				HttpResponse<InputStream> res = send(builder.build(), HttpResponse.BodyHandlers.ofInputStream(), job, timing);
+				final InputStream in = Compression.decode(res.body(), getContentEncoding(res));
+				job.setAbort(new Runnable() {
+					@Override
+					public void run() {
+						try { in.close(); } catch(IOException e) {}
+					}
+				});
+				try {
+					job.stream(res.statusCode(), "", in);
+				} finally {
+					in.close();
+				}
+				timing.end(Timing.DOWNLOAD);
+				return new Response(res.statusCode(), "", null);
+			}
+			HttpResponse<byte[]> res = send(builder.build(), HttpResponse.BodyHandlers.ofByteArray(), job, timing);
+			byte[] data = res.body();
+			String encoding = getContentEncoding(res);
+			if(encoding != null) {
+				InputStream in = Compression.decode(new ByteArrayInputStream(data), encoding);
+				try {
+					data = in.readAllBytes();
+				} finally {
+					in.close();
+				}
+			}
+			timing.end(Timing.DOWNLOAD);
+			return new Response(res.statusCode(), "", new String(data, UTF8));
+
+		} catch(ExecutionException e) {
+			fail(timing);
+			Throwable cause = e.getCause()==null ? e : e.getCause();
+			if(cause instanceof HttpTimeoutException) return new Response(Const.ERR_TIMEOUT, cause.getMessage(), null);
+			return new Response(Const.ERR_CONN, cause.getMessage(), PlugException.getStackTraceOf(cause));
+
+		} catch(SocketTimeoutException e) {
+			fail(timing);
+			return new Response(Const.ERR_TIMEOUT, e.getMessage(), null);
+
+		} catch(InterruptedException e) {
+			fail(timing);
+			Thread.currentThread().interrupt();
+			return new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
+
+		} catch(Exception e) {
+			fail(timing);
+			return new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
+		}
+	}
+
+	/**
+	 * Record the failure of an exchange: before the response headers the connection setup cannot be told apart from
+	 * the time to first byte, so the exchange failed in one of the last two phases.
+	 */
+	private static void fail(Timing timing) {
+		timing.fail(timing.isEnded(Timing.FIRST_BYTE) ? Timing.DOWNLOAD : Timing.FIRST_BYTE);
+	}
+
+	/**
+	 * Send a request, ending the time to first byte of its timing as soon as the response headers are received.
+	 */
+	private <T> HttpResponse<T> send(HttpRequest request, final HttpResponse.BodyHandler<T> handler, RestJob job,
+	                                 final Timing timing) throws IOException, InterruptedException, ExecutionException {
+		final CompletableFuture<HttpResponse<T>> future = client.sendAsync(request, new HttpResponse.BodyHandler<T>() {
+			@Override
+			public HttpResponse.BodySubscriber<T> apply(HttpResponse.ResponseInfo info) {
+				timing.end(Timing.FIRST_BYTE);
+				return handler.apply(info);
+			}
+		});
+		if(job != null) job.setAbort(new Runnable() {
+			@Override
+			public void run() {
+				future.cancel(true);
+			}
+		});
+		return future.get();
+	}
+
+	private static String getContentEncoding(HttpResponse<?> res) {
+		return res.headers().firstValue("Content-Encoding").orElse(null);
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final HttpClient client;
+}
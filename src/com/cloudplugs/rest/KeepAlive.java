@@ -0,0 +1,212 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief Keeper of warm connections to the base URL of a spooler, so that requests do not pay DNS, TCP and TLS setup.
+ * When started, it opens the configured number of connections at once by sending concurrent <tt>HEAD</tt> requests
+ * through the transport of the spooler, which keeps them in its pool of idle connections. Then, whenever the spooler
+ * sends nothing for an interval, it pings them the same way before the pool or the server closes them as idle;
+ * a connection found dead is replaced by the ping itself. Any HTTP status proves a connection alive.
+ * This class is for internal usage.
+ */
+public class KeepAlive
+{
+	/**
+	 * @param spooler the spooler whose transport and activity are used
+	 * @param url the base URL to connect to
+	 * @param connections the number of idle connections to keep
+	 * @param interval the milliseconds of inactivity after which the connections are pinged, it should be shorter
+	 *                 than the idle timeout of the connection pool (5 seconds for HttpURLConnection if the server
+	 *                 does not tell otherwise) and of the server
+	 */
+	public KeepAlive(RestSpooler spooler, String url, int connections, long interval) {
+		if(spooler == null) throw new NullPointerException("null spooler");
+		if(url == null) throw new NullPointerException("null url");
+		this.spooler     = spooler;
+		this.url         = url;
+		this.connections = Math.max(connections, 1);
+		this.interval    = Math.max(interval, MIN_INTERVAL);
+	}
+
+	/**
+	 * Set the maximum number of idle connections kept per host by the pool of <tt>HttpURLConnection</tt>, once per
+	 * process. It is the <tt>http.maxConnections</tt> system property, read by the JDK when it first pools a
+	 * connection: it is shared by all the clients of the JVM and it is ignored if set later.
+	 * The JDK keeps 5 idle connections per host by default, so a keeper of more connections needs this setting.
+	 * Call it at startup, before any HTTP exchange: only the first call applies it, and a property already set, like
+	 * on the command line, is kept.
+	 * @param connections the maximum number of idle connections per host
+	 * @return true if the setting has been applied, false if the one of a previous call or of the command line is
+	 *         in effect
+	 */
+	public static synchronized boolean setMaxConnections(int connections) {
+		if(maxConnectionsSet) return false;
+		maxConnectionsSet = true;
+		if(System.getProperty(PROP_MAX_CONNECTIONS) != null) return false;
+		System.setProperty(PROP_MAX_CONNECTIONS, String.valueOf(Math.max(connections, 1)));
+		return true;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return the number of pings sent so far, including the ones opening the connections
+	 */
+	public long getPings() {
+		return pings.get();
+	}
+
+	/**
+	 * @return the number of pings which did not get any HTTP response
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Open the connections in background, then keep them alive until {@link #stop()} is called.
+	 * The pings are sent by the keeper thread and by a pool of <tt>connections - 1</tt> daemon threads, owned by this
+	 * instance until it is stopped.
+	 */
+	public synchronized void start() {
+		if(keeper != null) return;
+		final ExecutorService pool = connections>1 ? Executors.newFixedThreadPool(connections-1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "keepalive-ping");
+				t.setDaemon(true);
+				return t;
+			}
+		}) : null;
+		keeper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				keepLoop(pool);
+			}
+		}, "keepalive-" + url);
+		keeper.setDaemon(true);
+		keeper.start();
+		this.pool = pool;
+	}
+
+	public synchronized void stop() {
+		keeper = null;
+		if(pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		notifyAll();
+	}
+
+	private void keepLoop(ExecutorService pool) {
+		Thread self = Thread.currentThread();
+		try {
+			for(;;) {
+				ping(pool);
+				synchronized(this) {
+					for(;;) {
+						if(keeper != self) return;
+						long idle = System.currentTimeMillis() - Math.max(spooler.getLastSendTime(), lastPing);
+						if(idle >= interval) break;
+						wait(interval - idle);
+					}
+				}
+			}
+		} catch(InterruptedException e) {}
+	}
+
+	/**
+	 * Send a ping on each connection at the same time, so that each one is taken from the pool; nothing is sent while
+	 * the circuit breaker of the spooler is not closed, as the endpoint is known to be failing.
+	 */
+	private void ping(ExecutorService pool) throws InterruptedException {
+		CircuitBreaker breaker = spooler.getCircuitBreaker();
+		if(breaker!=null && breaker.getState()!=CircuitBreaker.CLOSED) {
+			lastPing = System.currentTimeMillis();
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<Future<?>>(connections - 1);
+		try {
+			for(int i=1; i<connections; ++i) futures.add(pool.submit(pinger));
+		} catch(RejectedExecutionException e) {
+			// stopped meanwhile: the pings already submitted are still awaited
+		}
+		pingOne();
+		for(Future<?> f : futures) {
+			try { f.get(); }
+			catch(ExecutionException e) {}
+		}
+		lastPing = System.currentTimeMillis();
+	}
+
+	private void pingOne() {
+		Request  request  = new Request(Request.HEAD, url, "", null, null);
+		request.setDeadline(System.currentTimeMillis() + PING_TIMEOUT);
+		Response response = spooler.getTransport().send(request, 0, null);
+		pings.incrementAndGet();
+		if(!response.isCompleted()) failures.incrementAndGet();
+	}
+
+	private static final long   MIN_INTERVAL          = 100;
+	private static final long   PING_TIMEOUT          = 30000;
+	private static final String PROP_MAX_CONNECTIONS  = "http.maxConnections";
+
+	private static boolean      maxConnectionsSet;
+
+	private final RestSpooler   spooler;
+	private final String        url;
+	private final int           connections;
+	private final long          interval;
+	private final AtomicLong    pings    = new AtomicLong();
+	private final AtomicLong    failures = new AtomicLong();
+	private volatile long       lastPing;
+	private Thread              keeper;
+	private ExecutorService     pool;
+
+	private final Runnable      pinger = new Runnable() {
+		@Override
+		public void run() {
+			pingOne();
+		}
+	};
+}
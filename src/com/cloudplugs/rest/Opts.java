@@ -27,6 +27,7 @@ import java.net.URL;
 import org.json.JSONObject;
 
 import com.cloudplugs.util.PlugId;
+import com.cloudplugs.util.Spooler;
 import com.cloudplugs.util.Validate;
 
 
@@ -47,6 +48,52 @@ public final class Opts
 	public static final String K_URL = "url";
 	/** Key name of connection timeout when importing or exporting options to JSON. */
 	public static final String K_TIMEOUT = "timeout";
+	/** Key name of spooler worker threads when importing or exporting options to JSON. */
+	public static final String K_WORKERS = "workers";
+	/** Key name of virtual thread execution when importing or exporting options to JSON. */
+	public static final String K_VIRTUAL = "virtualThreads";
+	/** Key name of maximum requests in flight when importing or exporting options to JSON. */
+	public static final String K_INFLIGHT = "maxInFlight";
+	/** Key name of spooler lane when importing or exporting options to JSON. */
+	public static final String K_LANE = "lane";
+	/** Key name of spooler queue capacity when importing or exporting options to JSON. */
+	public static final String K_CAPACITY = "capacity";
+	/** Key name of spooler queue overflow policy when importing or exporting options to JSON. */
+	public static final String K_OVERFLOW = "overflow";
+	/** Key name of spooler queue overflow timeout when importing or exporting options to JSON. */
+	public static final String K_OVERFLOW_TIMEOUT = "overflowTimeout";
+	/** Key name of spooler idle strategy when importing or exporting options to JSON. */
+	public static final String K_IDLE = "idle";
+	/** Key name of spooler batch size when importing or exporting options to JSON. */
+	public static final String K_BATCH = "batch";
+	/** Key name of request coalescing when importing or exporting options to JSON. */
+	public static final String K_COALESCE = "coalesce";
+	/** Key name of HTTP/2 multiplexing when importing or exporting options to JSON. */
+	public static final String K_HTTP2 = "http2";
+	/** Key name of maximum HTTP/2 concurrent streams when importing or exporting options to JSON. */
+	public static final String K_STREAMS = "maxStreams";
+	/** Key name of HTTP/2 stream flow-control window when importing or exporting options to JSON. */
+	public static final String K_WINDOW = "windowSize";
+	/** Key name of HTTP/2 maximum frame size when importing or exporting options to JSON. */
+	public static final String K_FRAME = "frameSize";
+	/** Key name of body compression when importing or exporting options to JSON. */
+	public static final String K_COMPRESS = "compress";
+	/** Key name of the minimum size of compressed request bodies when importing or exporting options to JSON. */
+	public static final String K_COMPRESS_MIN = "compressMin";
+	/** Key name of the compression level when importing or exporting options to JSON. */
+	public static final String K_COMPRESS_LEVEL = "compressLevel";
+	/** Key name of the number of warm connections when importing or exporting options to JSON. */
+	public static final String K_KEEPALIVE = "keepAlive";
+	/** Key name of the keep-alive ping interval when importing or exporting options to JSON. */
+	public static final String K_KEEPALIVE_INTERVAL = "keepAliveInterval";
+	/** Key name of the TLS session cache size when importing or exporting options to JSON. */
+	public static final String K_SESSION_CACHE = "sessionCache";
+	/** Key name of the TLS session timeout when importing or exporting options to JSON. */
+	public static final String K_SESSION_TIMEOUT = "sessionTimeout";
+	/** Key name of the retry policy when importing or exporting options to JSON. */
+	public static final String K_RETRY = "retry";
+	/** Key name of the circuit breaker when importing or exporting options to JSON. */
+	public static final String K_BREAKER = "breaker";
 
 	/** The default SSL state: true if enabled, otherwise disabled. */
 	public static final boolean DEF_SSL = Const.DEFAULT_URL.startsWith("https");
@@ -54,6 +101,48 @@ public final class Opts
 	public static final String DEF_URL = makeUrl(Const.DEFAULT_URL, DEF_SSL);
 	/** The default connection timeout. */
 	public static final int DEF_TIMEOUT  = Const.DEFAULT_TIMEOUT;
+	/** The default number of worker threads sending requests to the same server. */
+	public static final int DEF_WORKERS  = Const.DEFAULT_WORKERS;
+	/** The default virtual thread execution: true if each request runs in its own virtual thread. */
+	public static final boolean DEF_VIRTUAL = Const.DEFAULT_VIRTUAL;
+	/** The default maximum number of requests in flight when using virtual threads. */
+	public static final int DEF_INFLIGHT = Const.DEFAULT_INFLIGHT;
+	/** The default spooler lane: null for the default lane of the spooler. */
+	public static final String DEF_LANE = Const.DEFAULT_LANE;
+	/** The default spooler queue capacity: 0 for an unbounded queue. */
+	public static final int DEF_CAPACITY = Const.DEFAULT_CAPACITY;
+	/** The default spooler queue overflow policy. */
+	public static final String DEF_OVERFLOW = Const.DEFAULT_OVERFLOW;
+	/** The default spooler queue overflow timeout: 0 for no expiration. */
+	public static final long DEF_OVERFLOW_TIMEOUT = Const.DEFAULT_OVERFLOW_TIMEOUT;
+	/** The default spooler idle strategy. */
+	public static final String DEF_IDLE = Const.DEFAULT_IDLE;
+	/** The default number of requests a spooler worker drains from the queue at once. */
+	public static final int DEF_BATCH = Const.DEFAULT_BATCH;
+	/** The default request coalescing: true if a pending request is replaced by a newer one for the same resource. */
+	public static final boolean DEF_COALESCE = Const.DEFAULT_COALESCE;
+	/** The default HTTP/2 multiplexing: true if the requests to the same server share a single HTTP/2 connection. */
+	public static final boolean DEF_HTTP2 = Const.DEFAULT_HTTP2;
+	/** The default maximum number of HTTP/2 streams in flight on the connection to the same server. */
+	public static final int DEF_STREAMS = Const.DEFAULT_STREAMS;
+	/** The default HTTP/2 stream flow-control window: 0 for the default of the JDK. */
+	public static final int DEF_WINDOW = Const.DEFAULT_WINDOW;
+	/** The default HTTP/2 maximum frame size: 0 for the default of the JDK. */
+	public static final int DEF_FRAME = Const.DEFAULT_FRAME;
+	/** The default body compression: true if request bodies are compressed and compressed responses are accepted. */
+	public static final boolean DEF_COMPRESS = Const.DEFAULT_COMPRESS;
+	/** The default minimum size in bytes of the request bodies to compress. */
+	public static final int DEF_COMPRESS_MIN = Const.DEFAULT_COMPRESS_MIN;
+	/** The default compression level, from 1 (fastest) to 9 (smallest). */
+	public static final int DEF_COMPRESS_LEVEL = Const.DEFAULT_COMPRESS_LEVEL;
+	/** The default number of warm connections kept to the server: 0 to open connections on demand only. */
+	public static final int DEF_KEEPALIVE = Const.DEFAULT_KEEPALIVE;
+	/** The default milliseconds of inactivity after which the warm connections are pinged. */
+	public static final long DEF_KEEPALIVE_INTERVAL = Const.DEFAULT_KEEPALIVE_PERIOD;
+	/** The default TLS session cache size: 0 to share the SSL context of the library. */
+	public static final int DEF_SESSION_CACHE = Const.DEFAULT_SESSION_CACHE;
+	/** The default TLS session timeout: 0 to share the SSL context of the library. */
+	public static final int DEF_SESSION_TIMEOUT = Const.DEFAULT_SESSION_TIMEOUT;
 	/** The default authentication identifier. */
 	public static final String DEF_AUTHID = Const.DEFAULT_AUTHID;
 	/** The default authentication password. */
@@ -204,7 +293,7 @@ public final class Opts
 
 	/**
 	 * Connection timeout getter.
-	 * @return the current connection timeout in seconds
+	 * @return the current connection timeout in seconds, also used as the deadline of each request
 	 */
 	public int getTimeout() {
 		return timeout;
@@ -212,6 +301,8 @@ public final class Opts
 
 	/**
 	 * Connection timeout setter.
+	 * Each request must complete within this time since it is enqueued, counting the time spent in the queue:
+	 * an expired request is not sent and it gets a {@link Const#ERR_TIMEOUT} response (see {@link Request#getDeadline()}).
 	 * @param timeout the connection timeout (in seconds) to set
 	 * @return this instance
 	 */
@@ -220,6 +311,453 @@ public final class Opts
 		return this;
 	}
 
+	/**
+	 * Spooler worker threads getter.
+	 * @return the number of threads concurrently sending requests to the server of the connection URL
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Spooler worker threads setter.
+	 * All the managers connected to the same URL share the same spooler, so this option is applied only by the
+	 * first {@link RestClient#getManager(Opts)} call creating the spooler of the connection URL.
+	 * With more than one worker, enqueued requests are still sent following the FIFO order, but their responses
+	 * can be received in a different order.
+	 * @param workers the number of threads concurrently sending requests to set
+	 * @return this instance
+	 */
+	public Opts setWorkers(int workers) {
+		this.workers = workers<=0 ? DEF_WORKERS : workers;
+		return this;
+	}
+
+	/**
+	 * @return true if each request is sent in its own virtual thread
+	 */
+	public boolean hasVirtualThreads() {
+		return virtual;
+	}
+
+	/**
+	 * Enable or disable the execution of each request in its own virtual thread, instead of the spooler worker threads.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * If the running JVM does not support virtual threads, the worker threads are used.
+	 * @param enable true to enable virtual threads, false to disable them
+	 * @return this instance
+	 */
+	public Opts enableVirtualThreads(boolean enable) {
+		virtual = enable;
+		return this;
+	}
+
+	/**
+	 * Maximum requests in flight getter.
+	 * @return the maximum number of requests sent at the same time when using virtual threads
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Maximum requests in flight setter.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * @param maxInFlight the maximum number of requests sent at the same time when using virtual threads
+	 * @return this instance
+	 */
+	public Opts setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight<=0 ? DEF_INFLIGHT : maxInFlight;
+		return this;
+	}
+
+	/**
+	 * Spooler lane getter.
+	 * @return the name of the spooler lane where requests are enqueued or null for the default lane
+	 */
+	public String getLane() {
+		return lane;
+	}
+
+	/**
+	 * Spooler lane setter.
+	 * Requests are enqueued in the named lane of the spooler (see {@link RestClient#setLanes(com.cloudplugs.util.Spooler.Lane...)}),
+	 * unknown lanes fall back to the default lane of the spooler.
+	 * @param lane the name of the spooler lane to set or null for the default lane
+	 * @return this instance
+	 */
+	public Opts setLane(String lane) {
+		this.lane = lane;
+		return this;
+	}
+
+	/**
+	 * Spooler queue capacity getter.
+	 * @return the maximum number of pending requests or 0 for an unbounded queue
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Spooler queue overflow policy getter.
+	 * @return one of the <tt>OVERFLOW_</tt> constants of {@link com.cloudplugs.util.Spooler}
+	 */
+	public String getOverflow() {
+		return overflow;
+	}
+
+	/**
+	 * Spooler queue overflow timeout getter.
+	 * @return the maximum milliseconds a blocked producer waits for room in the queue or 0 for no expiration
+	 */
+	public long getOverflowTimeout() {
+		return overflowTimeout;
+	}
+
+	/**
+	 * Spooler queue capacity setter.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * When the queue is full, requests are handled following the <tt>policy</tt>; requests dropped by the policy are
+	 * completed with a {@link Const#ERR_DROPPED} response, rejected requests throw a {@link com.cloudplugs.util.PlugException}.
+	 * @param capacity the maximum number of pending requests or 0 for an unbounded queue
+	 * @param policy one of the <tt>OVERFLOW_</tt> constants of {@link com.cloudplugs.util.Spooler}
+	 * @param timeout the maximum milliseconds a producer is blocked by {@link com.cloudplugs.util.Spooler#OVERFLOW_BLOCK}
+	 *                before being rejected, 0 for no expiration
+	 * @return this instance
+	 * @throws IllegalArgumentException if the policy is unknown
+	 */
+	public Opts setCapacity(int capacity, String policy, long timeout) {
+		if(policy == null) throw new NullPointerException("null policy");
+		if(!Spooler.isOverflowPolicy(policy)) throw new IllegalArgumentException("invalid overflow policy: "+policy);
+		this.capacity        = capacity<0 ? DEF_CAPACITY : capacity;
+		this.overflow        = policy;
+		this.overflowTimeout = timeout<0 ? DEF_OVERFLOW_TIMEOUT : timeout;
+		return this;
+	}
+
+	/**
+	 * Spooler idle strategy getter.
+	 * @return one of the <tt>IDLE_</tt> constants of {@link com.cloudplugs.util.Spooler}
+	 */
+	public String getIdleStrategy() {
+		return idle;
+	}
+
+	/**
+	 * Spooler idle strategy setter.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * Spinning strategies reduce the latency of requests enqueued in bursts, at the cost of CPU usage while idle.
+	 * @param strategy one of the <tt>IDLE_</tt> constants of {@link com.cloudplugs.util.Spooler}
+	 * @return this instance
+	 * @throws IllegalArgumentException if the strategy is unknown
+	 */
+	public Opts setIdleStrategy(String strategy) {
+		if(strategy == null) throw new NullPointerException("null strategy");
+		if(!Spooler.isIdleStrategy(strategy)) throw new IllegalArgumentException("invalid idle strategy: "+strategy);
+		idle = strategy;
+		return this;
+	}
+
+	/**
+	 * Spooler batch size getter.
+	 * @return the maximum number of requests a spooler worker drains from the queue at once
+	 */
+	public int getBatchSize() {
+		return batch;
+	}
+
+	/**
+	 * Spooler batch size setter.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * See {@link com.cloudplugs.util.Spooler#setBatchSize(int)} for the trade-offs of larger batches.
+	 * @param batch the maximum number of requests drained at once
+	 * @return this instance
+	 */
+	public Opts setBatchSize(int batch) {
+		this.batch = batch<=0 ? DEF_BATCH : batch;
+		return this;
+	}
+
+	/**
+	 * @return true if a pending request is replaced by a newer request for the same resource
+	 */
+	public boolean isCoalescing() {
+		return coalesce;
+	}
+
+	/**
+	 * Enable or disable request coalescing.
+	 * When enabled, a new request with the same method, path and authentication of a request still pending replaces it
+	 * in place (last write wins), and the callback of the replaced request receives a {@link Const#ERR_SUPERSEDED}
+	 * response. It is meant for requests carrying the latest state of something, like device properties.
+	 * @param enable true to enable coalescing, false to disable it
+	 * @return this instance
+	 */
+	public Opts enableCoalescing(boolean enable) {
+		coalesce = enable;
+		return this;
+	}
+
+	/**
+	 * @return true if the requests to the same server are multiplexed on a single HTTP/2 connection
+	 */
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	/**
+	 * Enable or disable the multiplexing of the requests to the same server as streams of a single HTTP/2 connection
+	 * (see {@link Http2Transport}), unless a transport is set on the client.
+	 * Up to {@link #getMaxStreams()} requests are sent at the same time: each one runs in its own virtual thread if
+	 * supported by the running JVM, otherwise the spooler gets at least as many worker threads.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * @param enable true to enable HTTP/2 multiplexing, false to disable it
+	 * @return this instance
+	 */
+	public Opts enableHttp2(boolean enable) {
+		http2 = enable;
+		return this;
+	}
+
+	/**
+	 * Maximum HTTP/2 streams getter.
+	 * @return the maximum number of requests in flight on the HTTP/2 connection
+	 */
+	public int getMaxStreams() {
+		return maxStreams;
+	}
+
+	/**
+	 * Maximum HTTP/2 streams setter.
+	 * It should not exceed the maximum number of concurrent streams allowed by the server.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * @param maxStreams the maximum number of requests in flight on the HTTP/2 connection
+	 * @return this instance
+	 */
+	public Opts setMaxStreams(int maxStreams) {
+		this.maxStreams = maxStreams<=0 ? DEF_STREAMS : maxStreams;
+		return this;
+	}
+
+	/**
+	 * HTTP/2 flow-control window getter.
+	 * @return the initial flow-control window of each HTTP/2 stream in bytes or 0 for the default of the JDK
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * HTTP/2 flow-control window setter.
+	 * A small window bounds the memory buffered for each stream, a large one lets large responses flow without
+	 * waiting for window updates. The window of the connection is large enough for all the streams.
+	 * The flow-control settings are process-wide: only the ones of the first HTTP/2 spooler created in the process are
+	 * applied, to all the HTTP/2 connections of the JVM (see {@link Http2Transport#setFlowControl(int, int, int)}).
+	 * @param windowSize the initial window of each stream in bytes, at least 16384, or 0 for the default of the JDK
+	 * @return this instance
+	 */
+	public Opts setWindowSize(int windowSize) {
+		this.windowSize = windowSize<=0 ? DEF_WINDOW : Math.max(windowSize, MIN_FRAME);
+		return this;
+	}
+
+	/**
+	 * HTTP/2 maximum frame size getter.
+	 * @return the maximum size of the HTTP/2 frames the server may send in bytes or 0 for the default of the JDK
+	 */
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * HTTP/2 maximum frame size setter.
+	 * Like {@link #setWindowSize(int)}, it is process-wide and only the one of the first HTTP/2 spooler is applied.
+	 * @param frameSize the maximum frame size in bytes, between 16384 and 16777215, or 0 for the default of the JDK
+	 * @return this instance
+	 */
+	public Opts setFrameSize(int frameSize) {
+		this.frameSize = frameSize<=0 ? DEF_FRAME : Math.min(Math.max(frameSize, MIN_FRAME), MAX_FRAME);
+		return this;
+	}
+
+	/**
+	 * @return true if request bodies are compressed and compressed responses are accepted
+	 */
+	public boolean isCompressing() {
+		return compress;
+	}
+
+	/**
+	 * Enable or disable the compression of the HTTP bodies, to save bandwidth on metered links at the cost of CPU.
+	 * When enabled, request bodies of at least {@link #getCompressMin()} bytes are sent gzip encoded, and gzip or
+	 * deflate encoded responses are accepted; responses are decoded while they are received.
+	 * The server must accept gzip encoded request bodies.
+	 * @param enable true to enable compression, false to disable it
+	 * @return this instance
+	 */
+	public Opts enableCompression(boolean enable) {
+		compress = enable;
+		return this;
+	}
+
+	/**
+	 * Minimum compressed body size getter.
+	 * @return the minimum size in bytes of the request bodies to compress
+	 */
+	public int getCompressMin() {
+		return compressMin;
+	}
+
+	/**
+	 * Minimum compressed body size setter.
+	 * Small bodies are not worth compressing: the gzip framing takes 18 bytes.
+	 * @param compressMin the minimum size in bytes of the request bodies to compress
+	 * @return this instance
+	 */
+	public Opts setCompressMin(int compressMin) {
+		this.compressMin = compressMin<0 ? DEF_COMPRESS_MIN : compressMin;
+		return this;
+	}
+
+	/**
+	 * Compression level getter.
+	 * @return the compression level of the request bodies, from 1 (fastest) to 9 (smallest)
+	 */
+	public int getCompressLevel() {
+		return compressLevel;
+	}
+
+	/**
+	 * Compression level setter.
+	 * @param compressLevel the compression level of the request bodies, from 1 (fastest) to 9 (smallest), values out
+	 *                      of range mean {@link #DEF_COMPRESS_LEVEL}
+	 * @return this instance
+	 */
+	public Opts setCompressLevel(int compressLevel) {
+		this.compressLevel = compressLevel<1 || compressLevel>9 ? DEF_COMPRESS_LEVEL : compressLevel;
+		return this;
+	}
+
+	/**
+	 * Warm connections getter.
+	 * @return the number of idle connections kept open to the server, 0 if connections are opened on demand only
+	 */
+	public int getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Keep some idle connections open to the server, so that requests do not pay DNS, TCP and TLS setup, not even the
+	 * first one or the first one after a long inactivity (see {@link KeepAlive}).
+	 * The connections are opened as soon as the spooler of the connection URL is created, then they are pinged with
+	 * a <tt>HEAD</tt> request on the connection URL whenever no request is sent for <tt>interval</tt> milliseconds;
+	 * each ping costs some traffic, which matters on metered links.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created.
+	 * The default transport pools at most 5 idle connections per host: to keep more, raise this process-wide limit
+	 * at startup with {@link KeepAlive#setMaxConnections(int)}.
+	 * @param connections the number of idle connections to keep, 0 to disable
+	 * @param interval the milliseconds of inactivity after which the connections are pinged; it should be shorter than
+	 *                 the idle timeout of the connection pool (5 seconds for the default transport unless the server
+	 *                 tells otherwise) and of the server, values lower than 1 mean {@link #DEF_KEEPALIVE_INTERVAL}
+	 * @return this instance
+	 */
+	public Opts setKeepAlive(int connections, long interval) {
+		this.keepAlive         = Math.max(connections, 0);
+		this.keepAliveInterval = interval<1 ? DEF_KEEPALIVE_INTERVAL : interval;
+		return this;
+	}
+
+	/**
+	 * Keep-alive ping interval getter.
+	 * @return the milliseconds of inactivity after which the warm connections are pinged
+	 */
+	public long getKeepAliveInterval() {
+		return keepAliveInterval;
+	}
+
+	/**
+	 * TLS session cache size getter.
+	 * @return the maximum number of TLS sessions cached by the dedicated SSL context, 0 if the shared one is used
+	 */
+	public int getSessionCache() {
+		return sessionCache;
+	}
+
+	/**
+	 * TLS session timeout getter.
+	 * @return the seconds a TLS session can be resumed by the dedicated SSL context, 0 if the shared one is used
+	 */
+	public int getSessionTimeout() {
+		return sessionTimeout;
+	}
+
+	/**
+	 * Give the connection URL a dedicated SSL context, with its own cache of TLS sessions (see
+	 * {@link com.cloudplugs.util.SSL#newContext(int, int)}).
+	 * A reconnection resuming a cached session performs an abbreviated handshake, skipping the key exchange and the
+	 * certificate verification, which saves CPU and round trips on constrained links.
+	 * Like {@link #setWorkers(int)}, this option is applied only when the spooler of the connection URL is created,
+	 * and only if no transport is set by {@link RestClient#setTransport(Transport)}.
+	 * @param cacheSize the maximum number of cached sessions, 0 or less for the JDK default
+	 * @param timeout the seconds a cached session can be resumed, 0 or less for the JDK default (24 hours)
+	 * @return this instance
+	 */
+	public Opts setSession(int cacheSize, int timeout) {
+		this.sessionCache   = Math.max(cacheSize, 0);
+		this.sessionTimeout = Math.max(timeout, 0);
+		return this;
+	}
+
+	/**
+	 * @return true if the connection URL has a dedicated SSL context
+	 */
+	public boolean hasSessionContext() {
+		return sessionCache>0 || sessionTimeout>0;
+	}
+
+	/**
+	 * Retry policy getter.
+	 * @return the policy retrying the requests after a transient failure, or null if requests are never retried
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retry;
+	}
+
+	/**
+	 * Retry the requests failed with a transient error, such as a connection error or a 503 response, by scheduling
+	 * them again with exponential backoff and jitter; their callback receives only the last response.
+	 * The policy instance holds the retry budget, so the options sharing it (including the ones imported by
+	 * {@link #fromOpts(Opts)}) share the budget too.
+	 * @param retry the retry policy, or null to never retry
+	 * @return this instance
+	 */
+	public Opts setRetryPolicy(RetryPolicy retry) {
+		this.retry = retry;
+		return this;
+	}
+
+	/**
+	 * Circuit breaker getter.
+	 * @return the settings of the circuit breaker of each base URL, or null if requests are always sent
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	/**
+	 * Stop sending requests to a base URL while it is failing or too slow, instead of waiting for the timeout of each
+	 * queued request: each spooler gets its own copy of the given breaker, so its state is kept per base URL.
+	 * While the breaker is open, requests fail fast with a {@link Const#ERR_OPEN} response or they are parked until
+	 * the endpoint recovers, and the state changes are emitted as {@link RestClient#EVT_BREAKER} events.
+	 * @param breaker the breaker settings, or null to always send the requests
+	 * @return this instance
+	 */
+	public Opts setCircuitBreaker(CircuitBreaker breaker) {
+		this.breaker = breaker;
+		return this;
+	}
+
 	/**
 	 * Import options from another <tt>Opts</tt> instance.
 	 * @param opts the options to import
@@ -228,12 +766,35 @@ public final class Opts
 	 */
 	public Opts fromOpts(Opts opts) {
 		if(opts == null) throw new NullPointerException("null opts");
-		url        = opts.url;
-		ssl        = opts.ssl;
-		authId     = opts.authId;
-		authPass   = opts.authPass;
-		authMaster = opts.authMaster;
-		timeout    = opts.timeout;
+		url             = opts.url;
+		ssl             = opts.ssl;
+		authId          = opts.authId;
+		authPass        = opts.authPass;
+		authMaster      = opts.authMaster;
+		timeout         = opts.timeout;
+		workers         = opts.workers;
+		virtual         = opts.virtual;
+		maxInFlight     = opts.maxInFlight;
+		lane            = opts.lane;
+		capacity        = opts.capacity;
+		overflow        = opts.overflow;
+		overflowTimeout = opts.overflowTimeout;
+		idle            = opts.idle;
+		batch           = opts.batch;
+		coalesce        = opts.coalesce;
+		http2           = opts.http2;
+		maxStreams      = opts.maxStreams;
+		windowSize      = opts.windowSize;
+		frameSize       = opts.frameSize;
+		compress        = opts.compress;
+		compressMin     = opts.compressMin;
+		compressLevel   = opts.compressLevel;
+		keepAlive       = opts.keepAlive;
+		keepAliveInterval = opts.keepAliveInterval;
+		sessionCache    = opts.sessionCache;
+		sessionTimeout  = opts.sessionTimeout;
+		retry           = opts.retry;
+		breaker         = opts.breaker;
 		return this;
 	}
 
@@ -272,6 +833,28 @@ public final class Opts
 			setUrl(jso.getString(K_URL));
 			setAuth(jso.getString(K_AUTHID), jso.getString(K_AUTHPASS), jso.getBoolean(K_AUTHMASTER));
 			setTimeout(jso.getInt(K_TIMEOUT));
+			setWorkers(jso.optInt(K_WORKERS, DEF_WORKERS));
+			enableVirtualThreads(jso.optBoolean(K_VIRTUAL, DEF_VIRTUAL));
+			setMaxInFlight(jso.optInt(K_INFLIGHT, DEF_INFLIGHT));
+			setLane(jso.has(K_LANE) ? jso.getString(K_LANE) : DEF_LANE);
+			setCapacity(jso.optInt(K_CAPACITY, DEF_CAPACITY), jso.optString(K_OVERFLOW, DEF_OVERFLOW),
+			            jso.optLong(K_OVERFLOW_TIMEOUT, DEF_OVERFLOW_TIMEOUT));
+			setIdleStrategy(jso.optString(K_IDLE, DEF_IDLE));
+			setBatchSize(jso.optInt(K_BATCH, DEF_BATCH));
+			enableCoalescing(jso.optBoolean(K_COALESCE, DEF_COALESCE));
+			enableHttp2(jso.optBoolean(K_HTTP2, DEF_HTTP2));
+			setMaxStreams(jso.optInt(K_STREAMS, DEF_STREAMS));
+			setWindowSize(jso.optInt(K_WINDOW, DEF_WINDOW));
+			setFrameSize(jso.optInt(K_FRAME, DEF_FRAME));
+			enableCompression(jso.optBoolean(K_COMPRESS, DEF_COMPRESS));
+			setCompressMin(jso.optInt(K_COMPRESS_MIN, DEF_COMPRESS_MIN));
+			setCompressLevel(jso.optInt(K_COMPRESS_LEVEL, DEF_COMPRESS_LEVEL));
+			setKeepAlive(jso.optInt(K_KEEPALIVE, DEF_KEEPALIVE), jso.optLong(K_KEEPALIVE_INTERVAL, DEF_KEEPALIVE_INTERVAL));
+			setSession(jso.optInt(K_SESSION_CACHE, DEF_SESSION_CACHE), jso.optInt(K_SESSION_TIMEOUT, DEF_SESSION_TIMEOUT));
+			JSONObject policy = jso.optJSONObject(K_RETRY);
+			setRetryPolicy(policy==null ? null : new RetryPolicy(policy));
+			JSONObject circuit = jso.optJSONObject(K_BREAKER);
+			setCircuitBreaker(circuit==null ? null : new CircuitBreaker(circuit));
 			return this;
 		} catch(Exception e) {
 			throw new IllegalArgumentException(e);
@@ -291,6 +874,29 @@ public final class Opts
 			jso.put(K_AUTHMASTER, authMaster);
 			jso.put(K_URL       , url);
 			jso.put(K_TIMEOUT   , timeout);
+			jso.put(K_WORKERS   , workers);
+			jso.put(K_VIRTUAL   , virtual);
+			jso.put(K_INFLIGHT  , maxInFlight);
+			if(lane != null) jso.put(K_LANE, lane);
+			jso.put(K_CAPACITY  , capacity);
+			jso.put(K_OVERFLOW  , overflow);
+			jso.put(K_OVERFLOW_TIMEOUT, overflowTimeout);
+			jso.put(K_IDLE      , idle);
+			jso.put(K_BATCH     , batch);
+			jso.put(K_COALESCE  , coalesce);
+			jso.put(K_HTTP2     , http2);
+			jso.put(K_STREAMS   , maxStreams);
+			jso.put(K_WINDOW    , windowSize);
+			jso.put(K_FRAME     , frameSize);
+			jso.put(K_COMPRESS  , compress);
+			jso.put(K_COMPRESS_MIN, compressMin);
+			jso.put(K_COMPRESS_LEVEL, compressLevel);
+			jso.put(K_KEEPALIVE , keepAlive);
+			jso.put(K_KEEPALIVE_INTERVAL, keepAliveInterval);
+			jso.put(K_SESSION_CACHE, sessionCache);
+			jso.put(K_SESSION_TIMEOUT, sessionTimeout);
+			if(retry != null) jso.put(K_RETRY, retry.toJSON());
+			if(breaker != null) jso.put(K_BREAKER, breaker.toJSON());
 			return jso;
 		} catch(Exception e) {
 			throw new RestException(e);
@@ -328,10 +934,36 @@ public final class Opts
 		return url;
 	}
 
-	private String  url        = DEF_URL;
-	private String  authId     = DEF_AUTHID;
-	private String  authPass   = DEF_AUTHPASS;
-	private boolean authMaster = DEF_AUTHMASTER;
-	private boolean ssl        = DEF_SSL;
-	private int     timeout    = DEF_TIMEOUT;
+	private String  url             = DEF_URL;
+	private String  authId          = DEF_AUTHID;
+	private String  authPass        = DEF_AUTHPASS;
+	private boolean authMaster      = DEF_AUTHMASTER;
+	private boolean ssl             = DEF_SSL;
+	private int     timeout         = DEF_TIMEOUT;
+	private int     workers         = DEF_WORKERS;
+	private boolean virtual         = DEF_VIRTUAL;
+	private int     maxInFlight     = DEF_INFLIGHT;
+	private String  lane            = DEF_LANE;
+	private int     capacity        = DEF_CAPACITY;
+	private String  overflow        = DEF_OVERFLOW;
+	private long    overflowTimeout = DEF_OVERFLOW_TIMEOUT;
+	private String  idle            = DEF_IDLE;
+	private int     batch           = DEF_BATCH;
+	private boolean coalesce        = DEF_COALESCE;
+	private boolean http2           = DEF_HTTP2;
+	private int     maxStreams      = DEF_STREAMS;
+	private int     windowSize      = DEF_WINDOW;
+	private int     frameSize       = DEF_FRAME;
+	private boolean compress        = DEF_COMPRESS;
+	private int     compressMin     = DEF_COMPRESS_MIN;
+	private int     compressLevel   = DEF_COMPRESS_LEVEL;
+	private int     keepAlive       = DEF_KEEPALIVE;
+	private long    keepAliveInterval = DEF_KEEPALIVE_INTERVAL;
+	private int     sessionCache    = DEF_SESSION_CACHE;
+	private int     sessionTimeout  = DEF_SESSION_TIMEOUT;
+	private RetryPolicy retry;
+	private CircuitBreaker breaker;
+
+	private static final int MIN_FRAME = 16384;
+	private static final int MAX_FRAME = 16777215;
 }
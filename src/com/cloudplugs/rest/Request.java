@@ -21,9 +21,16 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.cloudplugs.util.Compression;
+
 /**
  * @brief An instance of this class is a HTTP request to send or already sent to the server.
  */
@@ -34,12 +41,14 @@ public class Request
 	public final static String PUT    = "PUT";
 	public final static String PATCH  = "PATCH";
 	public final static String DELETE = "DELETE";
+	public final static String HEAD   = "HEAD";
 
-	public final static String K_METHOD  = "method";
-	public final static String K_HEADER  = "headers";
-	public final static String K_BODY    = "body";
-	public final static String K_BASEURL = "baseurl";
-	public final static String K_PATH    = "path";
+	public final static String K_METHOD   = "method";
+	public final static String K_HEADER   = "headers";
+	public final static String K_BODY     = "body";
+	public final static String K_BASEURL  = "baseurl";
+	public final static String K_PATH     = "path";
+	public final static String K_DEADLINE = "deadline";
 
 	/**
 	 * Create a new instance of this class.
@@ -55,7 +64,7 @@ public class Request
 		this.baseUrl = baseUrl;
 		this.path    = path;
 		this.headers = headers;
-		this.body    = body;
+		setBody(body);
 	}
 
 	/**
@@ -127,7 +136,103 @@ public class Request
 	 * @return the HTTP body of this request of null for empty body
 	 */
 	public String getBody() {
-		return body;
+		String s = body;
+		if(s==null && bodyBytes!=null) body = s = new String(bodyBytes, UTF8);
+		return s;
+	}
+
+	/**
+	 * HTTP body getter as UTF-8 bytes, encoded once when the body is set and reused by every sending attempt.
+	 * @return the encoded HTTP body of this request or null for empty body; the array must not be modified
+	 */
+	public byte[] getBodyBytes() {
+		return bodyBytes;
+	}
+
+	/**
+	 * @return the content coding of the body as sent, like {@link Compression#GZIP}, or null if it is not compressed
+	 */
+	public String getContentEncoding() {
+		return encoded==null ? null : Compression.GZIP;
+	}
+
+	/**
+	 * HTTP body getter as sent over the network.
+	 * @return the compressed body if this request is compressed (see {@link #compress(int)}), otherwise the same as
+	 *         {@link #getBodyBytes()}; the array must not be modified
+	 */
+	public byte[] getEncodedBody() {
+		return encoded==null ? bodyBytes : encoded;
+	}
+
+	/**
+	 * Compress the body of this request with gzip, once for all its sending attempts.
+	 * @param level the compression level, from 1 (fastest) to 9 (smallest)
+	 * @return this instance
+	 */
+	public Request compress(int level) {
+		if(bodyBytes!=null && bodyBytes.length>0) {
+			encoded = Compression.gzip(bodyBytes, level);
+			this.level = level;
+		}
+		return this;
+	}
+
+	/**
+	 * Deadline getter.
+	 * @return the time in milliseconds since the epoch by which this request must be completed, or 0 for no deadline
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Deadline setter.
+	 * The deadline covers the time spent in the queue and the connection, sending and receiving times: a request
+	 * dequeued after its deadline is not sent at all, otherwise the remaining time is used as the timeout of the
+	 * network operations. When a request without deadline is enqueued, it gets one from its connection timeout.
+	 * @param deadline the time in milliseconds since the epoch by which this request must be completed, or 0 for no
+	 *                 deadline
+	 * @return this instance
+	 */
+	public Request setDeadline(long deadline) {
+		this.deadline = deadline<0 ? 0 : deadline;
+		defaultDeadline = false;
+		return this;
+	}
+
+	/**
+	 * Set the deadline derived from the connection timeout of this request when it is enqueued; unlike an explicit
+	 * deadline, it is not stored in a journal, so a replayed request gets a new one from the replay time.
+	 */
+	void setDefaultDeadline(long deadline) {
+		setDeadline(deadline);
+		defaultDeadline = true;
+	}
+
+	/**
+	 * Retry policy getter.
+	 * @return the policy retrying this request after a transient failure, or null if it is never retried
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retry;
+	}
+
+	/**
+	 * Retry policy setter; the policy is not stored in a journal, so a replayed request is never retried.
+	 * @param retry the policy retrying this request after a transient failure, or null to never retry it
+	 * @return this instance
+	 */
+	public Request setRetryPolicy(RetryPolicy retry) {
+		this.retry = retry;
+		return this;
+	}
+
+	/**
+	 * @return true if the deadline of this request has passed
+	 */
+	public boolean isExpired() {
+		return deadline>0 && System.currentTimeMillis()>=deadline;
 	}
 
 	/**
@@ -152,7 +257,8 @@ public class Request
 					arr.put(headers[i]);
 				jso.put(K_HEADER , arr);
 			}
-			if(body != null) jso.put(K_BODY, body);
+			if(bodyBytes != null) jso.put(K_BODY, getBody());
+			if(deadline>0 && !defaultDeadline) jso.put(K_DEADLINE, deadline);
 			return jso;
 		} catch(Exception e) {
 			throw new RestException(e);
@@ -169,6 +275,70 @@ public class Request
 		return toJSON().toString();
 	}
 
+	/**
+	 * Write the compact binary form of this request, read back by {@link #readFrom(DataInput)}.
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		writeString(out, method);
+		writeString(out, baseUrl);
+		writeString(out, path);
+		out.writeInt(headers==null ? -1 : headers.length);
+		if(headers != null)
+			for(String header : headers)
+				writeString(out, header);
+		writeBytes(out, bodyBytes);
+		out.writeLong(defaultDeadline ? 0 : deadline);
+		out.writeByte(encoded==null ? 0 : level);
+	}
+
+	static Request readFrom(DataInput in) throws IOException {
+		String   method  = readString(in);
+		String   baseUrl = readString(in);
+		String   path    = readString(in);
+		int      n       = in.readInt();
+		String[] headers = n<0 ? null : new String[n];
+		for(int i=0; i<n; ++i)
+			headers[i] = readString(in);
+		Request request = new Request(method, baseUrl, path, headers, null);
+		request.bodyBytes = readBytes(in);
+		request.setDeadline(in.readLong());
+		int level = in.readByte();
+		if(level > 0) request.compress(level);
+		return request;
+	}
+
+	private static void writeString(DataOutput out, String s) throws IOException {
+		writeBytes(out, s==null ? null : s.getBytes(UTF8));
+	}
+
+	private static void writeBytes(DataOutput out, byte[] b) throws IOException {
+		if(b == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		byte[] b = readBytes(in);
+		return b==null ? null : new String(b, UTF8);
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		int n = in.readInt();
+		if(n < 0) return null;
+		byte[] b = new byte[n];
+		in.readFully(b);
+		return b;
+	}
+
+	private void setBody(String body) {
+		this.body      = body;
+		this.bodyBytes = body==null ? null : body.getBytes(UTF8);
+		this.encoded   = null;
+	}
+
 	protected void fromJSON(JSONObject jso) {
 		try {
 			String method  = jso.getString(K_METHOD);
@@ -185,11 +355,12 @@ public class Request
 						headers[i] = arr.getString(i);
 				}
 			}
-			this.method  = method;
-			this.baseUrl = baseUrl;
-			this.path    = path;
-			this.headers = headers;
-			this.body    = body;
+			this.method   = method;
+			this.baseUrl  = baseUrl;
+			this.path     = path;
+			this.headers  = headers;
+			setBody(body);
+			setDeadline(jso.optLong(K_DEADLINE, 0));
 		} catch(Exception e) {
 			throw new RestException(e);
 		}
@@ -213,4 +384,12 @@ public class Request
 	private String   path;
 	private String[] headers;
 	private String   body;
+	private byte[]   bodyBytes;
+	private byte[]   encoded;
+	private int      level;
+	private long     deadline;
+	private boolean  defaultDeadline;
+	private RetryPolicy retry;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 }
@@ -47,10 +47,12 @@ public class Response
 	public static final int ERR_NOT_FOUND        = 404;
 	public static final int ERR_NOT_ALLOWED      = 405;
 	public static final int ERR_NOT_ACCEPTABLE   = 406;
+	public static final int ERR_TOO_MANY         = 429;
 	public static final int ERR_INTERNAL         = 500;
 	public static final int ERR_NOT_IMPLEMENTED  = 501;
 	public static final int ERR_BAD_GATEWAY      = 502;
 	public static final int ERR_UNAVAILABLE      = 503;
+	public static final int ERR_GATEWAY_TIMEOUT  = 504;
 
 	/**
 	 * Create a new HTTP response.
@@ -123,6 +125,24 @@ public class Response
 		return body;
 	}
 
+	/**
+	 * Phase durations getter.
+	 * @return the durations of the phases of the exchange, or null if the transport did not measure them
+	 */
+	public Timing getTiming() {
+		return timing;
+	}
+
+	/**
+	 * Set the durations of the phases of the exchange; transports call it before returning this response.
+	 * @param timing the durations measured by the transport
+	 * @return this instance
+	 */
+	public Response setTiming(Timing timing) {
+		this.timing = timing;
+		return this;
+	}
+
 	/**
 	 * HTTP body getter as JSON instance.
 	 * @return the response body as a JSON instance, it can be an instance of {@link org.json.JSONObject},
@@ -193,4 +213,5 @@ public class Response
 	private final String msg;
 	private final String body;
 	private Object bodyJson;
+	private Timing timing;
 }
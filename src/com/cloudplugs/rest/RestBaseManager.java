@@ -28,6 +28,7 @@ import java.util.Date;
 import com.cloudplugs.util.Json;
 import com.cloudplugs.util.MultiListener;
 import com.cloudplugs.util.PlugId;
+import com.cloudplugs.util.Spooler;
 import com.cloudplugs.util.Timestamp;
 
 /**
@@ -75,6 +76,22 @@ public abstract class RestBaseManager extends MultiListener
 		return spooler.isEmpty();
 	}
 
+	/**
+	 * Retrieve the lanes of the underlying spooler, including their queue time statistics.
+	 * @return the lanes of the underlying spooler, sorted by decreasing priority
+	 */
+	public Spooler.Lane[] getLanes() {
+		return spooler.getLanes();
+	}
+
+	/**
+	 * Take a snapshot of the statistics of the underlying spooler, shared by all managers with the same base URL.
+	 * @return the queue depth, queue time and service time histograms and the job counters of the underlying spooler
+	 */
+	public Spooler.Stats getStats() {
+		return spooler.getStats();
+	}
+
 	/**
 	 * Retrieve an enqueued and pending asynchronous request as an instance of {@link RestJob}.
 	 * @param id the identifier of the asynchronous execution to obtain
@@ -191,7 +208,8 @@ public abstract class RestBaseManager extends MultiListener
 	}
 
 	protected int execRequest(Request request, RestCallback cb) {
-		return spooler.request(request, opts.getTimeout(), cb);
+		if(request.getRetryPolicy() == null) request.setRetryPolicy(opts.getRetryPolicy());
+		return spooler.request(request, opts.getTimeout(), opts.getLane(), cb);
 	}
 
 	protected int execGet(String action, String path, RestCallback cb) {
@@ -21,6 +21,11 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * @brief An instance of this interface will asynchronously receive the results of a HTTP request execution
  * enqueued using one of the methods in {@link RestManager}.
@@ -35,6 +40,29 @@ public interface RestCallback
 	 */
 	public void on(Request request, Response response);
 
+	/**
+	 * @brief A callback receiving the body of the response as a stream, instead of a string buffered in memory.
+	 *
+	 * When the callback of a request implements this interface, the transport invokes {@link #onStream} as soon as
+	 * the response headers are received, then {@link #on} with a response without body; if the request fails before
+	 * receiving a response, only {@link #on} is invoked with the error response. This is meant for large responses,
+	 * like big data retrievals, which can be parsed while they are received, for example by
+	 * <tt>new org.json.JSONTokener(body)</tt>.
+	 * It works only as the callback of the request itself, not wrapped by another callback.
+	 */
+	public interface Streaming extends RestCallback
+	{
+		/**
+		 * This method is called when the response headers are received, in the thread of the underlying spooler.
+		 * @param request the generated request
+		 * @param status the HTTP status code of the response
+		 * @param msg the HTTP status message of the response
+		 * @param body the body of the response, encoded in UTF-8; it is closed when this method returns
+		 * @throws IOException on error reading the body, the request is then completed by an error response
+		 */
+		public void onStream(Request request, int status, String msg, InputStream body) throws IOException;
+	}
+
 	/**
 	 * @brief Helper class to aggregate the execution of more {@link RestCallback}s into a single Object.
 	 */
@@ -68,6 +96,54 @@ public interface RestCallback
 		protected final RestCallback[] cbs;
 	}
 
+	/**
+	 * @brief Helper class exposing the outcome of a request as a java.util.concurrent.CompletionStage.
+	 *
+	 * Pass an instance of this class as the callback of a request, then compose its stage (for example with
+	 * <tt>thenCompose</tt>) to chain more requests without blocking any thread. Unlike looking up the
+	 * {@link RestJob} of a request, there is no race with a request completing before the lookup.
+	 * The stage is completed with the response in the spooler thread, or cancelled if the request is cancelled.
+	 */
+	public static class Stage implements RestCallback
+	{
+		public Stage() {
+			this(null);
+		}
+
+		/**
+		 * @param cb if not null, the callback invoked before completing the stage
+		 */
+		public Stage(RestCallback cb) {
+			this.cb = cb;
+		}
+
+		/**
+		 * @return the completion stage of the request using this callback
+		 */
+		public CompletionStage<Response> getStage() {
+			return future;
+		}
+
+		/**
+		 * {@link RestCallback} implementation.
+		 */
+		@Override
+		public void on(Request request, Response response) {
+			try {
+				if(cb != null) cb.on(request, response);
+			} finally {
+				future.complete(response);
+			}
+		}
+
+		void cancel() {
+			future.cancel(false);
+		}
+
+		private final RestCallback cb;
+		private final CompletableFuture<Response> future = new CompletableFuture<Response>();
+	}
+
 	/**
 	 * @brief Helper class for easy dealing between threads when using {@link RestCallback}.
 	 *
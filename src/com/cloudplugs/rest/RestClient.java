@@ -21,19 +21,28 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ThreadFactory;
 
+import javax.net.ssl.SSLContext;
+
+import com.cloudplugs.util.Journal;
 import com.cloudplugs.util.Listener;
 import com.cloudplugs.util.MultiListener;
+import com.cloudplugs.util.SSL;
 import com.cloudplugs.util.Spooler;
 
 /**
  * @brief This is the main class for handling the connection to the CloudPlugs server on the Java platform.
  * <br/><br/>
  * An instance of RestClient manages the HTTP requests flow by creating a thread spooler for each
- * server to connect. Such spooler will send enqueued HTTP requests one by one following the FIFO order.
+ * server to connect. Such spooler will send enqueued HTTP requests one by one following the FIFO order, or
+ * concurrently through more worker threads when {@link Opts#setWorkers(int)} is used, or multiplexed on a single
+ * HTTP/2 connection when {@link Opts#enableHttp2(boolean)} is used.
  * An instance of this class will also emit events about the internal spooler behavior, so that any attached
  * {@link com.cloudplugs.util.Listener} to a RestClient will be notified about what's happening in the execution flow.
  * <br/><br/>
@@ -59,6 +68,23 @@ public class RestClient extends MultiListener
 	public static final String EVT_RESUME = "resume";
 	/** Event String emitted each time an underlying spooler become idle (the internal HTTP request queue becomes empty). */
 	public static final String EVT_IDLE   = "idle";
+	/**
+	 * Event String emitted each time the queue of an underlying spooler becomes full, the value is an array containing
+	 * the spooler and the overflow policy in effect.
+	 */
+	public static final String EVT_OVERFLOW = Spooler.EVT_OVERFLOW;
+	/**
+	 * Event String emitted each time the circuit breaker of an underlying spooler changes state, the value is an array
+	 * containing the spooler and the name of the new state (see {@link CircuitBreaker#getName(int)}).
+	 */
+	public static final String EVT_BREAKER = CircuitBreaker.EVT_BREAKER;
+
+	/** Suggested lane name for time-critical requests, like device control and properties. */
+	public static final String LANE_CONTROL = "control";
+	/** Suggested lane name for ordinary data publishing. */
+	public static final String LANE_DATA    = "data";
+	/** Suggested lane name for bulk transfers that can wait. */
+	public static final String LANE_BULK    = "bulk";
 
 	/**
 	 * Create a new instance of this class.
@@ -88,11 +114,106 @@ public class RestClient extends MultiListener
 		synchronized(spoolers) {
 			spooler = spoolers.get(url);
 			if(spooler == null)
-				spoolers.put(url, spooler = newSpooler(url));
+				spoolers.put(url, spooler = newSpooler(url, opts));
 		}
 		return new RestManager(spooler, opts);
 	}
 
+	/**
+	 * Set the priority lanes of the spoolers created after this call.
+	 * The first lane is the default one. Each spooler creates its own copy of the given lanes, including their statistics.
+	 * Requests are enqueued in the lane set by {@link Opts#setLane(String)} or by {@link RestManager#inLane(String)}.
+	 * @param lanes the lanes to use or null to use a single default lane
+	 */
+	public void setLanes(Spooler.Lane... lanes) {
+		this.lanes = lanes==null || lanes.length==0 ? null : lanes.clone();
+	}
+
+	/**
+	 * Set the HTTP transport of the spoolers created after this call.
+	 * @param transport the transport to use or null for the default {@link UrlConnectionTransport}
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Make the requests of the spoolers created after this call durable, through a journal for each base URL.
+	 * The journals are kept in the given directory, so that the requests pending when the JVM stops are sent again
+	 * by the next RestClient using the same directory; GET requests are not journaled.
+	 * See {@link RestSpooler#setJournal(Journal)} for more details.
+	 * @param dir the directory of the journals or null to disable journaling
+	 * @param syncEvery sync a journal to disk after this number of requests, 1 for each request or 0 to disable
+	 * @param syncInterval sync a journal to disk every this milliseconds, 0 to disable
+	 */
+	public void setJournal(File dir, int syncEvery, long syncInterval) {
+		synchronized(journals) {
+			journalDir          = dir;
+			journalSyncEvery    = syncEvery;
+			journalSyncInterval = syncInterval;
+		}
+	}
+
+	/**
+	 * Take a snapshot of the statistics of all running spoolers, one for each base URL.
+	 * @return a new map from each base URL to the statistics of its spooler
+	 */
+	public Map<String,Spooler.Stats> getStats() {
+		Map<String,Spooler.Stats> res = new HashMap<String,Spooler.Stats>();
+		synchronized(spoolers) {
+			for(Map.Entry<String,RestSpooler> e : spoolers.entrySet())
+				res.put(e.getKey(), e.getValue().getStats());
+		}
+		return res;
+	}
+
+	/**
+	 * Obtain the distributions of the phase durations of the requests sent so far, for each base URL; they tell
+	 * whether slow requests are spent resolving, connecting, handshaking, waiting for the server or downloading.
+	 * @return a snapshot of the timing statistics of all running spoolers, by base URL
+	 */
+	public Map<String,Timing.Stats> getTimingStats() {
+		Map<String,Timing.Stats> res = new HashMap<String,Timing.Stats>();
+		synchronized(spoolers) {
+			for(Map.Entry<String,RestSpooler> e : spoolers.entrySet())
+				res.put(e.getKey(), e.getValue().getTimingStats());
+		}
+		return res;
+	}
+
+	/**
+	 * Obtain the fraction of the requests which reused a pooled connection, for each base URL.
+	 * Only the HTTPS requests sent through {@link UrlConnectionTransport} are measured, the ratio of other requests
+	 * is NaN; keep-alive pings are counted like any other request.
+	 * @return the connection reuse ratio of all running spoolers, by base URL
+	 */
+	public Map<String,Double> getReuseRatios() {
+		Map<String,Double> res = new HashMap<String,Double>();
+		synchronized(spoolers) {
+			for(Map.Entry<String,RestSpooler> e : spoolers.entrySet()) {
+				Transport transport = e.getValue().getTransport();
+				res.put(e.getKey(), transport instanceof UrlConnectionTransport
+					? ((UrlConnectionTransport)transport).getReuseRatio(e.getKey()) : Double.NaN);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Obtain the state of the circuit breaker of each base URL guarded by one (see {@link Opts#setCircuitBreaker}).
+	 * @return the state names of the circuit breakers of all running spoolers, by base URL
+	 */
+	public Map<String,String> getCircuitStates() {
+		Map<String,String> res = new HashMap<String,String>();
+		synchronized(spoolers) {
+			for(Map.Entry<String,RestSpooler> e : spoolers.entrySet()) {
+				CircuitBreaker breaker = e.getValue().getCircuitBreaker();
+				if(breaker != null) res.put(e.getKey(), CircuitBreaker.getName(breaker.getState()));
+			}
+		}
+		return res;
+	}
+
 	/**
 	 * @return true if at least one of the underlying thread spoolers has been started
 	 */
@@ -100,10 +221,42 @@ public class RestClient extends MultiListener
 		return started;
 	}
 
-	private RestSpooler newSpooler(String url) {
+	private RestSpooler newSpooler(String url, Opts opts) {
 		try {
 			RestSpooler spooler = spoolerConstr.newInstance();
+			spooler.setWorkers(opts.getWorkers());
+			Spooler.Lane[] lanes = this.lanes;
+			if(lanes != null) spooler.setLanes(lanes);
+			spooler.setCapacity(opts.getCapacity(), opts.getOverflow(), opts.getOverflowTimeout());
+			spooler.setIdleStrategy(opts.getIdleStrategy());
+			spooler.setBatchSize(opts.getBatchSize());
+			if(opts.hasVirtualThreads()) {
+				spooler.setJobThreadFactory(Spooler.newVirtualThreadFactory());
+				spooler.setMaxInFlight(opts.getMaxInFlight());
+			}
+			Transport  transport = this.transport;
+			SSLContext context   = opts.hasSessionContext() ? SSL.newContext(opts.getSessionCache(), opts.getSessionTimeout()) : null;
+			if(transport==null && opts.isHttp2()) {
+				int streams = opts.getMaxStreams();
+				transport = new Http2Transport(streams, opts.getWindowSize(), opts.getFrameSize(), context);
+				ThreadFactory factory = Spooler.newVirtualThreadFactory();
+				if(factory != null) {
+					spooler.setJobThreadFactory(factory);
+					spooler.setMaxInFlight(Math.max(streams, opts.hasVirtualThreads() ? opts.getMaxInFlight() : 0));
+				} else {
+					spooler.setWorkers(Math.max(streams, opts.getWorkers()));
+				}
+			} else if(transport==null && context!=null) {
+				transport = new UrlConnectionTransport(context.getSocketFactory());
+			}
+			spooler.setTransport(transport);
+			if(opts.getCircuitBreaker() != null)
+				spooler.setCircuitBreaker(new CircuitBreaker(opts.getCircuitBreaker()));
+			if(opts.getKeepAlive() > 0)
+				spooler.setKeepAlive(new KeepAlive(spooler, url, opts.getKeepAlive(), opts.getKeepAliveInterval()));
 			setSpoolerListener(spooler, url);
+			Journal journal = getJournal(url);
+			if(journal != null) spooler.setJournal(journal);
 			spooler.start();
 			return spooler;
 		} catch(Exception e) {
@@ -162,6 +315,11 @@ public class RestClient extends MultiListener
 	public void destroy() {
 		stop();
 		clearListeners();
+		synchronized(journals) {
+			for(Journal journal : journals.values())
+				journal.close();
+			journals.clear();
+		}
 	}
 
 	/**
@@ -240,12 +398,26 @@ public class RestClient extends MultiListener
 				if(hasOneSpooler()) RestClient.this.onIdle();
 			}
 			@Override
+			public void onEvt(Object evt, Object value) {
+				RestClient.this.onEvt(evt, new Object[]{ spooler, value });
+			}
+			@Override
 			public void onErr(Throwable t) {
 				RestClient.this.onErr(t);
 			}
 		});
 	}
 
+	private Journal getJournal(String url) throws IOException {
+		synchronized(journals) {
+			if(journalDir == null) return null;
+			Journal journal = journals.get(url);
+			if(journal == null) journals.put(url, journal = new Journal(journalDir, url.replaceAll("[^A-Za-z0-9]+", "_")));
+			journal.setSync(journalSyncEvery, journalSyncInterval);
+			return journal;
+		}
+	}
+
 	private boolean hasOneSpooler() {
 		synchronized(spoolers) {
 			return spoolers.size() == 1;
@@ -253,6 +425,12 @@ public class RestClient extends MultiListener
 	}
 
 	private volatile boolean started = false;
+	private volatile Spooler.Lane[] lanes = null;
+	private volatile Transport transport = null;
 	private final Constructor<? extends RestSpooler> spoolerConstr;
 	protected final Map<String,RestSpooler> spoolers = new HashMap<String,RestSpooler>();
+	private final Map<String,Journal> journals = new HashMap<String,Journal>();
+	private File journalDir          = null;
+	private int  journalSyncEvery    = 0;
+	private long journalSyncInterval = 0;
 }
@@ -21,21 +21,39 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import com.cloudplugs.util.Spooler;
+
 /**
  * @brief An instance of this class is an enqueued request execution obtained by {@link RestBaseManager#getJobOf(int)}.
+ * Each job owns a completion stage (see {@link #getCompletionStage()}), completed with the response right after the
+ * callback is invoked, or cancelled if the job is cancelled before running; waiting for a job does not involve
+ * the spooler at all.
+ * A job records when it is enqueued, started and finished (see {@link #getEnqueueTime()}).
+ * A running job can be aborted by {@link #cancel(boolean)}: its HTTP exchange is aborted and its callback receives
+ * a {@link Const#ERR_CANCELLED} response.
+ * If its callback is a {@link RestCallback.Streaming}, the response body is streamed to the callback and the response
+ * of the job has no body.
+ * A job failed with a transient error is run again by its spooler as long as the retry policy of its request allows
+ * it (see {@link RetryPolicy}), or as long as its request is parked by an open circuit breaker (see
+ * {@link CircuitBreaker}); it keeps its identifier and only its last response is delivered.
  */
-public class RestJob implements Future<Response>, Runnable
+public class RestJob implements Future<Response>, Spooler.Rerunnable
 {
 	protected RestJob(RestSpooler spooler, Request request, int timeout, RestCallback cb) {
 		this.spooler = spooler;
 		this.request = request;
 		this.timeout = timeout;
 		this.cb      = cb;
+		this.enqueueTime = System.nanoTime();
 	}
 
 	/**
@@ -44,8 +62,104 @@ public class RestJob implements Future<Response>, Runnable
 	 */
 	@Override
 	public final void run() {
-		response = RestSpooler.doRequest(request, timeout);
-		if(cb != null) cb.on(request, response);
+		if(startTime == 0) startTime = System.nanoTime();
+		rerun = UNDECIDED;
+		Response response = spooler.send(this);
+		abort = null;
+		if(aborted) response = new Response(Const.ERR_CANCELLED, ERR_CANCELLED, null);
+		else if(retryDelay(response.getStatus()) >= 0) return;
+		rerun = -1;
+		spooler.finished(this, response);
+		complete(response);
+	}
+
+	/**
+	 * Spooler.Rerunnable implementation, telling the spooler whether to retry this job.
+	 * Do not directly invoke this method.
+	 */
+	@Override
+	public long getRerunDelay() {
+		return rerun;
+	}
+
+	/**
+	 * @return the number of times this job has been sent, including retries but not the runs rejected by a circuit
+	 *         breaker
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Decide once per attempt whether to retry this job, according to the status of its response.
+	 */
+	private long retryDelay(int status) {
+		if(rerun == UNDECIDED) rerun = spooler.retryDelay(this, status);
+		return rerun;
+	}
+
+	/**
+	 * @return true if the HTTP exchange of this job has been aborted by {@link #cancel(boolean)}
+	 */
+	boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Register how to abort the HTTP exchange of this job; a {@link Transport} calls this method as soon as the
+	 * exchange is started, so that {@link #cancel(boolean)} can interrupt it.
+	 * @param abort the action aborting the exchange, it can be run from any thread
+	 * @throws IOException if this job has already been aborted, after running <tt>abort</tt>
+	 */
+	public void setAbort(Runnable abort) throws IOException {
+		this.abort = abort;
+		if(aborted) {
+			abort.run();
+			throw new IOException(ERR_CANCELLED);
+		}
+	}
+
+	/**
+	 * @return true if the response body of this job must be streamed to its callback (see
+	 *         {@link RestCallback.Streaming}) instead of buffered in the response
+	 */
+	public boolean isStreaming() {
+		return cb instanceof RestCallback.Streaming;
+	}
+
+	/**
+	 * Hand the body of the response to the streaming callback of this job; a {@link Transport} calls this method
+	 * instead of buffering the body when {@link #isStreaming()} is true.
+	 * @param status the HTTP status code of the response
+	 * @param msg the HTTP status message of the response
+	 * @param body the body of the response, to be closed by the caller
+	 * @throws IOException on error reading the body
+	 */
+	public void stream(int status, String msg, InputStream body) throws IOException {
+		if(retryDelay(status) < 0) ((RestCallback.Streaming)cb).onStream(request, status, msg, body);
+	}
+
+	void complete(Response response) {
+		this.response = response;
+		finishTime = System.nanoTime();
+		spooler.journaled(this);
+		try {
+			if(cb != null) cb.on(request, response);
+		} finally {
+			future.complete(response);
+		}
+	}
+
+	void superseded() {
+		request.id = ID_NULL;
+		complete(new Response(Const.ERR_SUPERSEDED, ERR_SUPERSEDED, null));
+	}
+
+	void cancelled() {
+		request.id = ID_NULL;
+		spooler.journaled(this);
+		future.cancel(false);
+		if(cb instanceof RestCallback.Stage) ((RestCallback.Stage)cb).cancel();
 	}
 
 	/**
@@ -62,8 +176,8 @@ public class RestJob implements Future<Response>, Runnable
 	 * always return <tt>true</tt>.  Subsequent calls to {@link #isCancelled}
 	 * will always return <tt>true</tt> if this method returned <tt>true</tt>.
 	 *
-	 * @param mayInterruptIfRunning <tt>true</tt> if the thread executing this
-	 *                              task should be interrupted; otherwise, in-progress tasks are allowed
+	 * @param mayInterruptIfRunning <tt>true</tt> if the HTTP connection of a running
+	 *                              task should be aborted; otherwise, in-progress tasks are allowed
 	 *                              to complete
 	 * @return <tt>false</tt> if the task could not be cancelled,
 	 * typically because it has already completed normally;
@@ -71,14 +185,19 @@ public class RestJob implements Future<Response>, Runnable
 	 */
 	@Override
 	public boolean cancel(boolean mayInterruptIfRunning) {
-		return cancel();
+		if(cancel()) return true;
+		if(!mayInterruptIfRunning || startTime==0 || future.isDone()) return false;
+		aborted = true;
+		Runnable a = abort;
+		if(a != null) a.run();
+		if(!future.cancel(false)) return false;
+		if(cb instanceof RestCallback.Stage) ((RestCallback.Stage)cb).cancel();
+		return true;
 	}
 
 	public boolean cancel() {
-		if(response!=null || request.id==ID_NULL) return false;
-		boolean res = spooler.cancel(request.id);
-		if(res) request.id = ID_NULL;
-		return res;
+		if(future.isDone()) return false;
+		return spooler.cancel(request.id);
 	}
 
 	/**
@@ -89,7 +208,7 @@ public class RestJob implements Future<Response>, Runnable
 	 */
 	@Override
 	public boolean isCancelled() {
-		return response==null && request.id==ID_NULL;
+		return future.isCancelled();
 	}
 
 	/**
@@ -103,7 +222,7 @@ public class RestJob implements Future<Response>, Runnable
 	 */
 	@Override
 	public boolean isDone() {
-		return response!=null || request.id==ID_NULL;
+		return future.isDone();
 	}
 
 	/**
@@ -111,6 +230,7 @@ public class RestJob implements Future<Response>, Runnable
 	 * retrieves its result.
 	 *
 	 * @return the computed result
+	 * @throws java.util.concurrent.CancellationException if the computation was cancelled
 	 * @throws java.util.concurrent.ExecutionException    if the computation threw an
 	 *                               exception
 	 * @throws InterruptedException  if the current thread was interrupted
@@ -118,20 +238,17 @@ public class RestJob implements Future<Response>, Runnable
 	 */
 	@Override
 	public Response get() throws InterruptedException, ExecutionException {
-		try {
-			return get(0, null);
-		} catch(Exception e) {
-			return null;
-		}
+		return future.get();
 	}
 
 	/**
 	 * Waits if necessary for at most the given time for the computation
 	 * to complete, and then retrieves its result, if available.
 	 *
-	 * @param timeout the maximum time to wait
-	 * @param unit    the time unit of the timeout argument
+	 * @param timeout the maximum time to wait, 0 to wait without expiration
+	 * @param unit    the time unit of the timeout argument, null for milliseconds
 	 * @return the computed result
+	 * @throws java.util.concurrent.CancellationException if the computation was cancelled
 	 * @throws java.util.concurrent.ExecutionException    if the computation threw an
 	 *                               exception
 	 * @throws InterruptedException  if the current thread was interrupted
@@ -140,21 +257,29 @@ public class RestJob implements Future<Response>, Runnable
 	 */
 	@Override
 	public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-		if(response == null) {
-			int id = request.id;
-			if(id != ID_NULL)
-				spooler.waitFor(id, unit==null ? timeout : unit.toMillis(timeout));
-		}
-		return response;
+		if(timeout <= 0) return future.get();
+		return future.get(timeout, unit==null ? TimeUnit.MILLISECONDS : unit);
+	}
+
+	/**
+	 * Obtain the completion stage of this job, for composing asynchronous pipelines without blocking any thread.
+	 * The stage is completed in the spooler thread with the response of this job, after invoking its callback, or it is
+	 * cancelled if this job is cancelled before running.
+	 * Dependent stages not using an async method are executed in the spooler thread, so they should not block.
+	 * @return the completion stage of this job
+	 */
+	public CompletionStage<Response> getCompletionStage() {
+		return future;
 	}
 
 	/**
 	 * Obtain the response of this job.
-	 * @return the resulting HTTP response
+	 * @return the resulting HTTP response, the {@link Const#ERR_CANCELLED} response of an aborted job or null if
+	 *         cancelled before running
 	 */
 	public Response getResponse() {
 		try { return get(); }
-		catch(Exception e) { return null; }
+		catch(Exception e) { return response; }
 	}
 
 	/**
@@ -166,7 +291,7 @@ public class RestJob implements Future<Response>, Runnable
 	}
 
 	/**
-	 * Retrieve the connection timeout applied when sending the HTTP request of this job.
+	 * Retrieve the connection timeout of this job, used as deadline of its request if it has not its own deadline.
 	 * @return the connection timeout in seconds
 	 */
 	public int getTimeout() {
@@ -181,12 +306,46 @@ public class RestJob implements Future<Response>, Runnable
 		return cb;
 	}
 
-	private RestSpooler  spooler;
-	private Request      request;
-	private Response     response;
-	private RestCallback cb;
-	private int          timeout;
+	/**
+	 * @return the value of {@link System#nanoTime()} when this job has been enqueued
+	 */
+	public long getEnqueueTime() {
+		return enqueueTime;
+	}
+
+	/**
+	 * @return the value of {@link System#nanoTime()} when this job has been started or 0 if not started yet
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the value of {@link System#nanoTime()} when this job has been finished or 0 if not finished yet
+	 */
+	public long getFinishTime() {
+		return finishTime;
+	}
+
+	private RestSpooler                spooler;
+	private Request                    request;
+	private volatile Response          response;
+	private RestCallback               cb;
+	private int                        timeout;
+	private final long                 enqueueTime;
+	private volatile long              startTime;
+	private volatile long              finishTime;
+	private volatile boolean           aborted;
+	private volatile Runnable          abort;
+	int                                attempts;
+	private long                       rerun = -1;
+	long                               seq;
+
+	private final CompletableFuture<Response> future = new CompletableFuture<Response>();
 
-	private static final int ID_NULL = RestSpooler.ID_NULL;
+	private static final int    ID_NULL        = RestSpooler.ID_NULL;
+	private static final long   UNDECIDED      = Long.MIN_VALUE;
+	private static final String ERR_CANCELLED  = "cancelled";
+	private static final String ERR_SUPERSEDED = "superseded";
 }
 
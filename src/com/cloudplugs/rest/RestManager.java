@@ -37,7 +37,8 @@ import com.cloudplugs.util.Validate;
  * before sending the request over the network.
  * <br/><br/>
  * All the requests will be serially enqueued and sent (following the order of method calls) in a separated thread spooler,
- * transparent to the developer.
+ * transparent to the developer. If the spooler has more worker threads (see {@link Opts#setWorkers(int)}), the requests
+ * are still dequeued in order, but they are sent concurrently and their callbacks can be invoked in a different order.
  * The last argument of each request method is an instance of the interface {@link RestCallback},
  * its method {@link RestCallback#on} will receive the results of the asynchronous execution: the produced {@link Request}
  * and its {@link Response}.
@@ -94,6 +95,17 @@ public class RestManager extends RestBaseManager
 		super(spooler, opts);
 	}
 
+	/**
+	 * Create a new manager sharing the spooler and the options of this manager, but enqueuing its requests in the
+	 * given spooler lane.
+	 * The attached {@link com.cloudplugs.util.Listener}s of this manager are not copied.
+	 * @param lane the name of the spooler lane (see {@link RestClient#setLanes(com.cloudplugs.util.Spooler.Lane...)})
+	 * @return a new manager enqueuing in <tt>lane</tt>
+	 */
+	public RestManager inLane(String lane) {
+		return new RestManager(spooler, new Opts(opts).setLane(lane));
+	}
+
 	//---- enroll/unenroll
 
 	/**
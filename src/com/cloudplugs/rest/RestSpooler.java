@@ -21,19 +21,18 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.cloudplugs.util.Compression;
+import com.cloudplugs.util.Journal;
 import com.cloudplugs.util.Listener;
-import com.cloudplugs.util.PlugException;
 import com.cloudplugs.util.RefSpooler;
-import com.cloudplugs.util.SSL;
 
 /**
  * @brief A thread spooler for asynchronous sending of HTTP requests.
@@ -62,102 +61,320 @@ public class RestSpooler extends RefSpooler
 		if(opts == null) throw new NullPointerException("null opts");
 		if(method == null) throw new NullPointerException("null method");
 		if(method.length() == 0) throw new IllegalArgumentException("empty method");
-		Request request = new Request(method, opts.getUrl(), path==null ? "" : path, getHeaders(opts), body);
-		return request(request, opts.getTimeout(), cb);
+		if(path == null) path = "";
+		Request request = new Request(method, opts.getUrl(), path, getHeaders(opts), body);
+		if(opts.isCompressing() && body!=null && request.getBodyBytes().length>=opts.getCompressMin())
+			request.compress(opts.getCompressLevel());
+		request.setRetryPolicy(opts.getRetryPolicy());
+		String  key     = opts.isCoalescing() ? method + ' ' + path + ' ' + opts.getAuthId() : null;
+		return request(request, opts.getTimeout(), opts.getLane(), key, cb);
 	}
 
 	public int request(final Request request, final int timeout, final RestCallback cb) {
-		return request.id = exec(new RestJob(this, request, timeout, cb));
+		return request(request, timeout, null, cb);
+	}
+
+	public int request(final Request request, final int timeout, final String lane, final RestCallback cb) {
+		return request(request, timeout, lane, null, cb);
+	}
+
+	/**
+	 * Enqueue a request, replacing the pending request with the same coalescing key, if any.
+	 * @param key the coalescing key or null to never coalesce the request
+	 * @return the identifier of the enqueued request, shared with the request it replaced, if any
+	 */
+	public int request(final Request request, final int timeout, final String lane, final Object key, final RestCallback cb) {
+		setDeadline(request, timeout, 0);
+		return request.id = enqueue(0, new RestJob(this, request, timeout, cb), lane, key);
+	}
+
+	/**
+	 * Enqueue a request to send after a delay; it can be cancelled and waited for like any other request.
+	 * @param delay the milliseconds to wait before enqueuing the request, 0 or less to enqueue it immediately
+	 * @return the identifier of the scheduled request
+	 */
+	public int requestAfter(long delay, final Request request, final int timeout, final String lane, final RestCallback cb) {
+		setDeadline(request, timeout, delay);
+		return request.id = enqueue(delay, new RestJob(this, request, timeout, cb), lane, null);
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Set the HTTP transport used to send the requests of this spooler.
+	 * @param transport the transport to use or null for the default {@link UrlConnectionTransport}
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport==null ? UrlConnectionTransport.INSTANCE : transport;
+	}
+
+	public KeepAlive getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Keep warm connections to a base URL while this spooler is running (see {@link KeepAlive}).
+	 * @param keepAlive the keeper of the connections, started now if this spooler is running, or null to disable it
+	 */
+	public synchronized void setKeepAlive(KeepAlive keepAlive) {
+		if(this.keepAlive != null) this.keepAlive.stop();
+		this.keepAlive = keepAlive;
+		if(keepAlive!=null && isStarted()) keepAlive.start();
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	/**
+	 * Guard the requests of this spooler by a circuit breaker, whose state changes are emitted as events of this
+	 * spooler (see {@link CircuitBreaker}).
+	 * @param breaker the breaker, not shared with other spoolers, or null to always send the requests
+	 */
+	public void setCircuitBreaker(CircuitBreaker breaker) {
+		CircuitBreaker old = this.breaker;
+		if(old != null) old.setListener(null);
+		if(breaker != null) breaker.setListener(this);
+		this.breaker = breaker;
 	}
 
 	@Override
-	public RestJob getJobOf(int id) {
-		return (RestJob)super.getJobOf(id);
+	public synchronized boolean start() {
+		boolean res = super.start();
+		if(keepAlive != null) keepAlive.start();
+		return res;
 	}
 
-	protected static Response doRequest(Request request, int timeout) {
-		Response response = null;
-		InputStream    in = null;
-		OutputStream  out = null;
+	@Override
+	public synchronized boolean stop() {
+		if(keepAlive != null) keepAlive.stop();
+		return super.stop();
+	}
 
-		try {
-			HttpURLConnection conn = (HttpURLConnection)new URL(request.getUrl()).openConnection();
-			conn.setInstanceFollowRedirects(true);
-			conn.setDoInput(true);
-
-			if(timeout > 0) conn.setConnectTimeout(timeout * 1000);
-			String  method  = request.getMethod();
-			String  body    = request.getBody();
-			boolean hasBody = body!=null && body.length()>0;
-
-			if((hasBody && Request.DELETE.equals(method)) || Request.PATCH.equals(method)) {
-				// NOTE: HttpURLConnection does not support PATCH nor DELETE with body
-				conn.setRequestProperty("X-HTTP-Method-Override", method);
-				method = Request.POST;
-			}
-			conn.setRequestMethod(method);
-
-			String[] headers = request.getHeaders();
-			if(headers != null)
-				for(int i=1, n=headers.length; i<n; i+=2)
-					conn.setRequestProperty(headers[i-1], headers[i]);
-			conn.setRequestProperty("Accept", "application/json");
-			conn.setRequestProperty("User-Agent", Const.USER_AGENT);
-
-			if(hasBody) {
-				byte[] bodyBytes = body.getBytes();
-				conn.setRequestProperty("Content-Type", "application/json");
-				conn.setDoOutput(true);
-				conn.setFixedLengthStreamingMode(bodyBytes.length);
-				out = new BufferedOutputStream(conn.getOutputStream());
-				out.write(bodyBytes);
-				out.flush();
-			}
+	/**
+	 * Obtain the distributions of the phase durations of the requests sent by this spooler, including failed ones.
+	 * @return a snapshot of the distributions, in nanoseconds
+	 */
+	public Timing.Stats getTimingStats() {
+		return timings.copy();
+	}
+
+	@Override
+	public void resetStats() {
+		super.resetStats();
+		timings.reset();
+	}
 
+	/**
+	 * @return the time in milliseconds since the epoch of the last request sent, or 0 if none
+	 */
+	public long getLastSendTime() {
+		return lastSend;
+	}
+
+	public Journal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Make the requests of this spooler durable through a journal, then enqueue the pending requests found in it.
+	 * Each request, except GET ones, is appended to the journal when enqueued and marked as done when completed,
+	 * cancelled or dropped; replayed requests have no callback. A job still pending when this spooler is stopped is
+	 * kept in the journal, so this spooler does not clear its queue on stop anymore.
+	 * Requests are delivered at least once: a request running during a crash is sent again.
+	 * Only an explicit deadline of a request is stored (see {@link Request#setDeadline(long)}): a replayed request
+	 * without one gets a new deadline from its connection timeout, counted from the replay time.
+	 * @param journal the journal to use, it should not be shared with other running spoolers
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+		if(journal == null) return;
+		setClearOnStop(false);
+		for(Map.Entry<Long,byte[]> e : journal.getPending().entrySet()) {
 			try {
-				in = new BufferedInputStream(conn.getInputStream());
-			} catch(IOException e) {
-				in = new BufferedInputStream(conn.getErrorStream());
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(e.getValue()));
+				if(in.readByte() != JOURNAL_VERSION) throw new IOException("unknown journal record");
+				int     timeout = in.readInt();
+				String  lane    = in.readBoolean() ? in.readUTF() : null;
+				Request request = Request.readFrom(in);
+				RestJob job     = new RestJob(this, request, timeout, null);
+				setDeadline(request, timeout, 0);
+				job.seq = e.getKey();
+				request.id = exec(job, lane);
+			} catch(Exception ex) {
+				journal.done(e.getKey());
+				onErr(ex);
 			}
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			byte[] buf = new byte[BUF_LENGTH];
-			try {
-				for(int n; (n = in.read(buf, 0, BUF_LENGTH)) != -1;)
-					baos.write(buf, 0, n);
-			} catch(IOException e) {}
-			baos.flush();
-			body = new String(baos.toByteArray());
+		}
+	}
 
-			response = new Response(conn.getResponseCode(), conn.getResponseMessage(), body);
+	private static void setDeadline(Request request, int timeout, long delay) {
+		if(request.getDeadline()==0 && timeout>0)
+			request.setDefaultDeadline(System.currentTimeMillis() + Math.max(delay, 0) + timeout*1000L);
+	}
 
-		} catch(Exception e) {
-			response = new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
+	private int enqueue(long delay, RestJob job, String lane, Object key) {
+		journal(job, lane);
+		try {
+			return delay>0 ? execAfter(delay, job, lane) : exec(job, lane, key);
+		} catch(RuntimeException e) {
+			journaled(job);
+			throw e;
+		}
+	}
 
-		} finally {
-			if(in  != null) { try { in .close(); } catch(Exception e) {} }
-			if(out != null) { try { out.close(); } catch(Exception e) {} }
+	private void journal(RestJob job, String lane) {
+		Journal journal = this.journal;
+		Request request = job.getRequest();
+		if(journal==null || Request.GET.equals(request.getMethod())) return;
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(JOURNAL_VERSION);
+			out.writeInt(job.getTimeout());
+			out.writeBoolean(lane != null);
+			if(lane != null) out.writeUTF(lane);
+			request.writeTo(out);
+			job.seq = journal.append(baos.toByteArray());
+		} catch(IOException e) {
+			onErr(e);
 		}
+	}
+
+	/**
+	 * Mark the journal record of a finished job as done.
+	 */
+	void journaled(RestJob job) {
+		Journal journal = this.journal;
+		if(job.seq==0 || journal==null) return;
+		journal.done(job.seq);
+		job.seq = 0;
+	}
+
+	@Override
+	public RestJob getJobOf(int id) {
+		return (RestJob)super.getJobOf(id);
+	}
+
+	/**
+	 * Complete a job discarded by the overflow policy with a {@link Const#ERR_DROPPED} response.
+	 */
+	@Override
+	protected void onDiscard(Runnable job) {
+		((RestJob)job).complete(new Response(Const.ERR_DROPPED, ERR_DROPPED, null));
+	}
+
+	/**
+	 * Complete a job replaced by a newer one with a {@link Const#ERR_SUPERSEDED} response.
+	 */
+	@Override
+	protected void onSupersede(Runnable job) {
+		((RestJob)job).superseded();
+	}
 
+	/**
+	 * Cancel the completion stage of a cancelled job.
+	 */
+	@Override
+	protected void onCancel(Runnable job) {
+		((RestJob)job).cancelled();
+	}
+
+	/**
+	 * Send the request of a job in the current thread, recording the phase durations of the exchange and its outcome
+	 * in the circuit breaker, if any.
+	 * An expired request is not sent at all and gets a {@link Const#ERR_TIMEOUT} response, a request rejected by the
+	 * circuit breaker gets a {@link Const#ERR_OPEN} one.
+	 */
+	Response send(RestJob job) {
+		Request request = job.getRequest();
+		if(request.isExpired()) return new Response(Const.ERR_TIMEOUT, ERR_EXPIRED, null);
+		CircuitBreaker breaker = this.breaker;
+		long           permit  = breaker==null ? 0 : breaker.acquire();
+		if(permit < 0) return new Response(Const.ERR_OPEN, ERR_OPEN, null);
+		++job.attempts;
+		lastSend   = System.currentTimeMillis();
+		long start = System.nanoTime();
+		Response response = transport.send(request, job.getTimeout(), job);
+		if(breaker != null) {
+			if(job.isAborted()) breaker.release(permit);
+			else breaker.record(permit, response.getStatus(), (System.nanoTime() - start) / 1000000);
+		}
+		if(response.getTiming() != null) timings.record(response.getTiming());
 		return response;
 	}
 
+	/**
+	 * Decide whether to retry a job after an attempt, according to the retry policy of its request, or to park it
+	 * if it has been rejected by a parking circuit breaker; a retry must start before the deadline of the request.
+	 * @return the milliseconds to wait before the next attempt, or -1 if the job must not be retried
+	 */
+	long retryDelay(RestJob job, int status) {
+		if(job.isCancelled()) return -1;
+		Request request = job.getRequest();
+		boolean parking = status == Const.ERR_OPEN;
+		long    delay;
+		if(parking) {
+			CircuitBreaker breaker = this.breaker;
+			delay = breaker!=null && breaker.isParking() ? breaker.getParkDelay() : -1;
+		} else {
+			RetryPolicy policy = request.getRetryPolicy();
+			delay = policy==null ? -1 : policy.nextDelay(job.getAttempts(), status);
+		}
+		long deadline = request.getDeadline();
+		if(delay<0 || (deadline>0 && System.currentTimeMillis()+delay>=deadline)) return -1;
+		if(!parking) retries.incrementAndGet();
+		return delay;
+	}
+
+	/**
+	 * Count a job finished with a failed response as an errored job.
+	 */
+	void finished(RestJob job, Response response) {
+		if(response.isFailed() && !job.isCancelled()) countError();
+	}
+
+	/**
+	 * @return the number of attempts retried so far
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Send a request through the default transport in the current thread.
+	 */
+	protected static Response doRequest(Request request, int timeout) {
+		return UrlConnectionTransport.INSTANCE.send(request, timeout, null);
+	}
+
 	private static String[] getHeaders(Opts opts) {
 		String authId = opts.getAuthId();
-		return authId == null ? null : new String[] {
+		if(authId == null) return opts.isCompressing() ? new String[] { ACCEPT_ENCODING, Compression.ACCEPT } : null;
+		String[] auth = {
 			authId.indexOf('@')>0 ? Const.HEADER_EMAIL : Const.HEADER_PLUGID,
 			authId,
 			opts.isAuthMaster() ? Const.HEADER_MASTER : Const.HEADER_AUTH,
 			opts.getAuthPass()==null ? "" : opts.getAuthPass(),
 		};
+		if(!opts.isCompressing()) return auth;
+		return new String[] { auth[0], auth[1], auth[2], auth[3], ACCEPT_ENCODING, Compression.ACCEPT };
 	}
 
-	static {
-		try {
-			SSL.trustCloudPlugs();
-		} catch(Exception e) {
-			e.printStackTrace();
-		}
-	}
+	private static final String ERR_DROPPED     = "dropped by full queue";
+	private static final String ERR_EXPIRED     = UrlConnectionTransport.ERR_EXPIRED;
+	private static final String ERR_OPEN        = "circuit open";
+	private static final String ACCEPT_ENCODING = "Accept-Encoding";
+	private static final byte   JOURNAL_VERSION = 1;
+
+	private volatile Transport      transport = UrlConnectionTransport.INSTANCE;
+	private volatile Journal        journal;
+	private volatile KeepAlive      keepAlive;
+	private volatile CircuitBreaker breaker;
+	private volatile long           lastSend;
 
-	private static final int BUF_LENGTH = 8*1024;
+	private final Timing.Stats timings = new Timing.Stats();
+	private final AtomicLong   retries = new AtomicLong();
 }
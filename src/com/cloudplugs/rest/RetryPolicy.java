@@ -0,0 +1,246 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * @brief Policy retrying the requests which failed with a transient error, with exponential backoff and full jitter.
+ * A request failed with a retryable status is sent again after a random delay between 0 and
+ * <tt>min(maxDelay, delay * 2^(attempt-1))</tt> milliseconds, up to a maximum number of attempts and never beyond
+ * its deadline; the randomness spreads the retries of many clients failed at the same time.
+ * The retries are bounded by a budget of tokens shared by all the requests using this policy: each retry takes a
+ * token, each response not retryable gives back a fraction of a token, and a retry is granted only if more than half
+ * of the budget is left after taking its token. So retries cannot multiply the load of a server already failing most requests.
+ * A retried request is scheduled again in its spooler (see {@link com.cloudplugs.util.Spooler.Rerunnable}), without
+ * blocking any thread while waiting, and its callback receives only the response of its last attempt.
+ * Any method is retried: a request failed by a connection error may have been executed by the server anyway, so
+ * requests should be idempotent, as they are when a journal replays them.
+ */
+public class RetryPolicy
+{
+	/** The default maximum number of attempts of a request, including the first one. */
+	public static final int    DEF_ATTEMPTS  = Const.DEFAULT_RETRY_ATTEMPTS;
+	/** The default base delay in milliseconds. */
+	public static final long   DEF_DELAY     = Const.DEFAULT_RETRY_DELAY;
+	/** The default maximum delay in milliseconds. */
+	public static final long   DEF_MAX_DELAY = Const.DEFAULT_RETRY_MAX_DELAY;
+	/** The default size of the retry budget in tokens. */
+	public static final int    DEF_BUDGET    = Const.DEFAULT_RETRY_BUDGET;
+	/** The default fraction of a token given back by each response not retryable. */
+	public static final double DEF_REFILL    = Const.DEFAULT_RETRY_REFILL;
+
+	/** Key name of the maximum number of attempts when importing or exporting a policy to JSON. */
+	public static final String K_ATTEMPTS  = "attempts";
+	/** Key name of the base delay when importing or exporting a policy to JSON. */
+	public static final String K_DELAY     = "delay";
+	/** Key name of the maximum delay when importing or exporting a policy to JSON. */
+	public static final String K_MAX_DELAY = "maxDelay";
+	/** Key name of the retryable statuses when importing or exporting a policy to JSON. */
+	public static final String K_STATUSES  = "statuses";
+	/** Key name of the budget size when importing or exporting a policy to JSON. */
+	public static final String K_BUDGET    = "budget";
+	/** Key name of the budget refill when importing or exporting a policy to JSON. */
+	public static final String K_REFILL    = "refill";
+
+	/**
+	 * @return the statuses retried by default: connection errors, timeouts, 429, 502, 503 and 504
+	 */
+	public static int[] getDefaultStatuses() {
+		return new int[] {
+			Const.ERR_CONN, Const.ERR_TIMEOUT,
+			Response.ERR_TOO_MANY, Response.ERR_BAD_GATEWAY, Response.ERR_UNAVAILABLE, Response.ERR_GATEWAY_TIMEOUT
+		};
+	}
+
+	/**
+	 * Create a new policy with the default settings.
+	 */
+	public RetryPolicy() {
+		this(DEF_ATTEMPTS, DEF_DELAY, DEF_MAX_DELAY);
+	}
+
+	/**
+	 * Create a new policy retrying the default statuses (see {@link #getDefaultStatuses()}) with the default budget.
+	 * @param attempts the maximum number of attempts of a request, including the first one
+	 * @param delay the base delay in milliseconds
+	 * @param maxDelay the maximum delay in milliseconds
+	 */
+	public RetryPolicy(int attempts, long delay, long maxDelay) {
+		this(attempts, delay, maxDelay, null, DEF_BUDGET, DEF_REFILL);
+	}
+
+	/**
+	 * Create a new policy.
+	 * @param attempts the maximum number of attempts of a request, including the first one, at least 1
+	 * @param delay the base delay in milliseconds, at least 1
+	 * @param maxDelay the maximum delay in milliseconds, at least <tt>delay</tt>
+	 * @param statuses the retryable statuses, including the negative ones of {@link Const}, or null for
+	 *                 {@link #getDefaultStatuses()}
+	 * @param budget the size of the retry budget in tokens, values lower than 1 to disable the budget
+	 * @param refill the fraction of a token given back by each response not retryable
+	 */
+	public RetryPolicy(int attempts, long delay, long maxDelay, int[] statuses, int budget, double refill) {
+		this.attempts = Math.max(attempts, 1);
+		this.delay    = Math.max(delay, 1);
+		this.maxDelay = Math.max(maxDelay, this.delay);
+		this.statuses = statuses==null ? getDefaultStatuses() : statuses.clone();
+		this.budget   = Math.max(budget, 0);
+		this.refill   = Math.max(refill, 0);
+		this.tokens   = new AtomicLong(this.budget * MILLI);
+		Arrays.sort(this.statuses);
+	}
+
+	/**
+	 * Create a new policy from its JSON representation; missing keys get the default values.
+	 * @param jso the JSON representation of the policy, as produced by {@link #toJSON()}
+	 */
+	public RetryPolicy(JSONObject jso) {
+		this(jso.optInt(K_ATTEMPTS, DEF_ATTEMPTS), jso.optLong(K_DELAY, DEF_DELAY), jso.optLong(K_MAX_DELAY, DEF_MAX_DELAY),
+		     toStatuses(jso.optJSONArray(K_STATUSES)), jso.optInt(K_BUDGET, DEF_BUDGET), jso.optDouble(K_REFILL, DEF_REFILL));
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public long getDelay() {
+		return delay;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @return the sorted retryable statuses
+	 */
+	public int[] getStatuses() {
+		return statuses.clone();
+	}
+
+	/**
+	 * @return the size of the retry budget in tokens, 0 if disabled
+	 */
+	public int getBudget() {
+		return budget;
+	}
+
+	public double getRefill() {
+		return refill;
+	}
+
+	/**
+	 * @return the tokens left in the retry budget
+	 */
+	public double getTokens() {
+		return tokens.get() / (double)MILLI;
+	}
+
+	/**
+	 * @param status the status of a response
+	 * @return true if a response with the given status may be retried
+	 */
+	public boolean isRetryable(int status) {
+		return Arrays.binarySearch(statuses, status) >= 0;
+	}
+
+	/**
+	 * Decide whether to retry the response of an attempt, taking a token from the budget only for a granted retry;
+	 * a response not retryable refills the budget instead.
+	 * @param attempt the number of attempts made so far, including the one of the response
+	 * @param status the status of the response
+	 * @return the milliseconds to wait before the next attempt, or -1 if the request must not be retried
+	 */
+	public long nextDelay(int attempt, int status) {
+		if(!isRetryable(status)) {
+			if(budget > 0) for(long t, max=budget*MILLI; (t = tokens.get()) < max;)
+				if(tokens.compareAndSet(t, Math.min(t + (long)(refill*MILLI), max))) break;
+			return -1;
+		}
+		if(attempt >= attempts) return -1;
+		if(budget > 0) for(long t;;) {
+			t = tokens.get();
+			if(t - MILLI <= budget*MILLI/2) return -1;
+			if(tokens.compareAndSet(t, t - MILLI)) break;
+		}
+		return backoff(attempt);
+	}
+
+	/**
+	 * @param attempt the number of attempts made so far, at least 1
+	 * @return a random delay between 0 and the exponential backoff of the attempt, in milliseconds
+	 */
+	public long backoff(int attempt) {
+		int  shift = Math.min(Math.max(attempt-1, 0), 62);
+		long cap   = delay > (maxDelay >> shift) ? maxDelay : delay << shift;
+		return ThreadLocalRandom.current().nextLong(cap + 1);
+	}
+
+	/**
+	 * Export this policy as a JSON object.
+	 * @return the JSON representation of this policy
+	 */
+	public JSONObject toJSON() {
+		try {
+			JSONObject jso = new JSONObject();
+			jso.put(K_ATTEMPTS , attempts);
+			jso.put(K_DELAY    , delay);
+			jso.put(K_MAX_DELAY, maxDelay);
+			JSONArray arr = new JSONArray();
+			for(int status : statuses) arr.put(status);
+			jso.put(K_STATUSES , arr);
+			jso.put(K_BUDGET   , budget);
+			jso.put(K_REFILL   , refill);
+			return jso;
+		} catch(Exception e) {
+			throw new RestException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toJSON().toString();
+	}
+
+	private static int[] toStatuses(JSONArray arr) {
+		if(arr == null) return null;
+		int[] res = new int[arr.length()];
+		for(int i=0; i<res.length; ++i) res[i] = arr.optInt(i);
+		return res;
+	}
+
+	private static final long MILLI = 1000;
+
+	private final int        attempts;
+	private final long       delay;
+	private final long       maxDelay;
+	private final int[]      statuses;
+	private final int        budget;
+	private final double     refill;
+	private final AtomicLong tokens;
+}
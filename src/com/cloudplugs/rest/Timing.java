@@ -0,0 +1,211 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import com.cloudplugs.util.Histogram;
+
+/**
+ * @brief Durations of the phases of an HTTP exchange, in nanoseconds, as measured by the transport which sent it.
+ * The phases are consecutive: the resolution of the host name, the TCP connect, the TLS handshake, the time to the
+ * first byte of the response (sending the request plus the server think time) and the download of the body (or its
+ * streaming to the callback). A phase not reached, or not observable by the transport, lasts 0: a request on a
+ * pooled connection has neither connect nor TLS time, {@link UrlConnectionTransport} counts the resolution in the TCP
+ * connect and {@link HttpClientTransport} counts the whole connection setup in the time to first byte.
+ */
+public final class Timing
+{
+	/** Index of the host name resolution phase. */
+	public static final int DNS        = 0;
+	/** Index of the TCP connect phase. */
+	public static final int CONNECT    = 1;
+	/** Index of the TLS handshake phase. */
+	public static final int TLS        = 2;
+	/** Index of the phase from the connection to the first byte of the response. */
+	public static final int FIRST_BYTE = 3;
+	/** Index of the body download phase. */
+	public static final int DOWNLOAD   = 4;
+	/** The number of phases. */
+	public static final int PHASES     = 5;
+
+	/**
+	 * Start timing an exchange now.
+	 */
+	public Timing() {
+		start = last = System.nanoTime();
+	}
+
+	/**
+	 * @param phase the index of the phase, from {@link #DNS} to {@link #DOWNLOAD}
+	 * @return the nanoseconds spent in the phase
+	 */
+	public long get(int phase) {
+		return phases[phase];
+	}
+
+	/**
+	 * @return the nanoseconds spent in all the phases
+	 */
+	public long getTotal() {
+		return last - start;
+	}
+
+	/**
+	 * End a phase now: the time since the end of the previous phase is added to it.
+	 * @param phase the index of the phase to end
+	 */
+	public void end(int phase) {
+		long now = System.nanoTime();
+		phases[phase] += now - last;
+		last   = now;
+		ended |= 1 << phase;
+	}
+
+	/**
+	 * End the phase in progress now, the one following the last ended phase, and record it as the phase where the
+	 * exchange failed.
+	 */
+	public void fail() {
+		fail(current());
+	}
+
+	/**
+	 * End a phase now and record it as the phase where the exchange failed, for a transport which cannot observe the
+	 * phase in progress.
+	 * @param phase the index of the phase to end
+	 */
+	public void fail(int phase) {
+		failed = phase;
+		end(phase);
+	}
+
+	/**
+	 * @return the index of the phase where the exchange failed, or -1 if it did not fail
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @param phase the index of a phase
+	 * @return true if the phase has been ended at least once
+	 */
+	public boolean isEnded(int phase) {
+		return (ended & (1 << phase)) != 0;
+	}
+
+	/**
+	 * @param phase the index of a phase
+	 * @return the name of the phase, as used by {@link #toString()}
+	 */
+	public static String getName(int phase) {
+		return NAMES[phase];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(96);
+		for(int i=0; i<PHASES; ++i) appendMillis(sb.append(NAMES[i]).append('='), phases[i]).append(' ');
+		appendMillis(sb.append("total="), getTotal());
+		if(failed >= 0) sb.append(" failed=").append(NAMES[failed]);
+		return sb.toString();
+	}
+
+	private int current() {
+		return Math.min(32 - Integer.numberOfLeadingZeros(ended), DOWNLOAD);
+	}
+
+	private static StringBuilder appendMillis(StringBuilder sb, long nanos) {
+		return sb.append(nanos / 1000000).append('.').append(nanos / 100000 % 10).append("ms");
+	}
+
+	/**
+	 * @brief Distributions of the phase durations of the exchanges sent by a spooler, in nanoseconds.
+	 */
+	public static final class Stats
+	{
+		/**
+		 * Create empty distributions.
+		 */
+		public Stats() {
+			histograms = new Histogram[PHASES + 1];
+			for(int i=0; i<histograms.length; ++i) histograms[i] = new Histogram();
+		}
+
+		private Stats(Histogram[] histograms) {
+			this.histograms = histograms;
+		}
+
+		/**
+		 * Record the durations of an exchange.
+		 * @param timing the durations to record
+		 */
+		public void record(Timing timing) {
+			for(int i=0; i<PHASES; ++i) histograms[i].record(timing.phases[i]);
+			histograms[PHASES].record(timing.getTotal());
+		}
+
+		/**
+		 * @param phase the index of the phase, from {@link #DNS} to {@link #DOWNLOAD}
+		 * @return the distribution of the durations of the phase
+		 */
+		public Histogram get(int phase) {
+			return histograms[phase];
+		}
+
+		/**
+		 * @return the distribution of the total durations
+		 */
+		public Histogram getTotal() {
+			return histograms[PHASES];
+		}
+
+		public void reset() {
+			for(Histogram h : histograms) h.reset();
+		}
+
+		/**
+		 * @return a snapshot of these distributions
+		 */
+		public Stats copy() {
+			Histogram[] res = new Histogram[histograms.length];
+			for(int i=0; i<res.length; ++i) res[i] = histograms[i].copy();
+			return new Stats(res);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(512);
+			for(int i=0; i<PHASES; ++i) sb.append(NAMES[i]).append(": ").append(histograms[i]).append('\n');
+			return sb.append("total: ").append(histograms[PHASES]).toString();
+		}
+
+		private final Histogram[] histograms;
+	}
+
+	private static final String[] NAMES = { "dns", "connect", "tls", "firstByte", "download" };
+
+	private final long[] phases = new long[PHASES];
+	private final long   start;
+	private long         last;
+	private int          ended;
+	private int          failed = -1;
+}
@@ -0,0 +1,45 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+/**
+ * @brief Interface of the HTTP transports used by {@link RestSpooler} for sending requests.
+ * A transport is shared by all the threads of a spooler, so implementations must be thread safe.
+ * The default transport is {@link UrlConnectionTransport}; another transport can be set to a single spooler by
+ * {@link RestSpooler#setTransport(Transport)} or to all spoolers of a client by {@link RestClient#setTransport(Transport)}.
+ */
+public interface Transport
+{
+	/**
+	 * Send a request and wait for its response, in the calling thread.
+	 * If the request has a deadline (see {@link Request#getDeadline()}), the exchange must not last longer than the
+	 * time left; otherwise the given timeout bounds the connection.
+	 * Failures are not thrown, they are returned as responses with a negative status, like {@link Const#ERR_CONN}
+	 * or {@link Const#ERR_TIMEOUT}.
+	 * @param request the request to send
+	 * @param timeout the connection timeout in seconds or 0 for no timeout
+	 * @param job the job sending the request, where to register how to abort the exchange
+	 *            (see {@link RestJob#setAbort(Runnable)}), or null
+	 * @return the received response or the error response
+	 */
+	Response send(Request request, int timeout, RestJob job);
+}
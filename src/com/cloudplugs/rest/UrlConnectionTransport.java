@@ -0,0 +1,341 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.cloudplugs.util.BufferPool;
+import com.cloudplugs.util.Compression;
+import com.cloudplugs.util.PlugException;
+import com.cloudplugs.util.SSL;
+
+/**
+ * @brief Default HTTP transport, based on java.net.HttpURLConnection.
+ * HttpURLConnection does not support the PATCH method nor DELETE with a body, so such requests are sent as POST
+ * with a <tt>X-HTTP-Method-Override</tt> header.
+ * Response bodies are decoded while received if they are compressed, then read into pooled buffers and decoded from
+ * UTF-8, as required for JSON.
+ * Connections are pooled by the JDK keep-alive cache; the HTTPS connections opened for each host are counted, so that
+ * their reuse can be measured (see {@link #getReuseRatio(String)}).
+ * HTTPS connections use the socket factory of the transport, so that no process-wide default is installed; a
+ * dedicated SSL context keeps its own cache of TLS sessions, resumed by the reconnections to the same server.
+ * Each response carries the durations of the phases of its exchange (see {@link Timing}): the resolution of the host
+ * name, done by the connection itself (or by its proxy), is counted in the TCP connect, while the TLS handshake of a
+ * new HTTPS connection is told apart from its TCP connect by the socket factory, which layers it on the connected
+ * socket. A request without deadline is bounded by its timeout both when connecting and when waiting for each read.
+ */
+public class UrlConnectionTransport implements Transport
+{
+	/** Shared instance, since this transport only keeps connection counters. */
+	public static final UrlConnectionTransport INSTANCE = new UrlConnectionTransport();
+
+	/**
+	 * Create a new transport using the socket factory of {@link SSL#getSocketFactory()}.
+	 */
+	public UrlConnectionTransport() {
+		this(null);
+	}
+
+	/**
+	 * Create a new transport using the given socket factory for HTTPS connections.
+	 * @param socketFactory the socket factory, usually of a context from {@link SSL#newContext(int, int)}, or null for
+	 *                      {@link SSL#getSocketFactory()}
+	 */
+	public UrlConnectionTransport(SSLSocketFactory socketFactory) {
+		this.socketFactory = socketFactory;
+	}
+
+	/**
+	 * @return the socket factory of HTTPS connections, or null if {@link SSL#getSocketFactory()} is used
+	 */
+	public SSLSocketFactory getSocketFactory() {
+		return socketFactory;
+	}
+
+	/**
+	 * Obtain the fraction of the HTTPS exchanges with the host of a URL which reused a pooled connection, instead of
+	 * opening a new one. HttpURLConnection does not tell when a plain HTTP connection is opened, so only HTTPS
+	 * exchanges are measured.
+	 * @param url any URL of the host
+	 * @return the reuse ratio between 0 and 1, or NaN if there was no HTTPS exchange with the host
+	 */
+	public double getReuseRatio(String url) {
+		try {
+			CountingFactory f = factories.get(keyOf(new URL(url)));
+			long n = f==null ? 0 : f.exchanges.get();
+			return n==0 ? Double.NaN : 1 - (double)Math.min(f.connections.get(), n) / n;
+		} catch(MalformedURLException e) {
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public Response send(Request request, int timeout, RestJob job) {
+		Response response = null;
+		InputStream    in = null;
+		OutputStream  out = null;
+		Timing     timing = new Timing();
+
+		try {
+			URL url = new URL(request.getUrl());
+			final HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+			if(conn instanceof HttpsURLConnection) {
+				HttpsURLConnection https = (HttpsURLConnection)conn;
+				CountingFactory f = factoryOf(https.getURL(), socketFactory!=null ? socketFactory : SSL.getSocketFactory());
+				https.setSSLSocketFactory(f);
+				f.exchanges.incrementAndGet();
+			}
+			if(job != null) job.setAbort(new Runnable() {
+				@Override
+				public void run() {
+					conn.disconnect();
+				}
+			});
+			conn.setInstanceFollowRedirects(true);
+			conn.setDoInput(true);
+
+			long deadline = request.getDeadline();
+			if(deadline > 0) {
+				int left = remaining(deadline);
+				conn.setConnectTimeout(left);
+				conn.setReadTimeout(left);
+			} else if(timeout > 0) {
+				conn.setConnectTimeout(timeout * 1000);
+				conn.setReadTimeout(timeout * 1000);
+			}
+			String  method  = request.getMethod();
+			byte[]  body    = request.getEncodedBody();
+			boolean hasBody = body!=null && body.length>0;
+
+			if((hasBody && Request.DELETE.equals(method)) || Request.PATCH.equals(method)) {
+				// NOTE: HttpURLConnection does not support PATCH nor DELETE with body
+				conn.setRequestProperty("X-HTTP-Method-Override", method);
+				method = Request.POST;
+			}
+			conn.setRequestMethod(method);
+
+			String[] headers = request.getHeaders();
+			if(headers != null)
+				for(int i=1, n=headers.length; i<n; i+=2)
+					conn.setRequestProperty(headers[i-1], headers[i]);
+			conn.setRequestProperty("Accept", "application/json");
+			conn.setRequestProperty("User-Agent", Const.USER_AGENT);
+			if(hasBody) {
+				conn.setRequestProperty("Content-Type", "application/json");
+				if(request.getContentEncoding() != null)
+					conn.setRequestProperty("Content-Encoding", request.getContentEncoding());
+				conn.setDoOutput(true);
+				conn.setFixedLengthStreamingMode(body.length);
+			}
+
+			CONNECTING.set(timing);
+			try {
+				conn.connect();
+			} finally {
+				CONNECTING.remove();
+			}
+			if(!timing.isEnded(Timing.CONNECT)) timing.end(Timing.CONNECT);
+			timing.end(Timing.TLS);
+
+			if(hasBody) {
+				out = conn.getOutputStream();
+				out.write(body);
+				out.flush();
+			}
+
+			if(deadline > 0) conn.setReadTimeout(remaining(deadline));
+			try {
+				in = conn.getInputStream();
+			} catch(IOException e) {
+				in = conn.getErrorStream();
+			}
+			timing.end(Timing.FIRST_BYTE);
+			in = Compression.decode(in, conn.getContentEncoding());
+			int    status = conn.getResponseCode();
+			String msg    = conn.getResponseMessage();
+			if(job!=null && job.isStreaming()) {
+				job.stream(status, msg, in==null ? new ByteArrayInputStream(new byte[0]) : in);
+				response = new Response(status, msg, null);
+			} else {
+				response = new Response(status, msg, readBody(in, conn.getContentLength()));
+			}
+			timing.end(Timing.DOWNLOAD);
+
+		} catch(SocketTimeoutException e) {
+			fail(timing);
+			response = new Response(Const.ERR_TIMEOUT, e.getMessage(), null);
+
+		} catch(Exception e) {
+			fail(timing);
+			response = new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
+
+		} finally {
+			if(in  != null) { try { in .close(); } catch(Exception e) {} }
+			if(out != null) { try { out.close(); } catch(Exception e) {} }
+		}
+
+		return response.setTiming(timing);
+	}
+
+	/**
+	 * Record the failure of an exchange: the host name resolution is part of the connect, so an exchange failed before
+	 * connecting failed in the connect phase.
+	 */
+	private static void fail(Timing timing) {
+		if(timing.isEnded(Timing.CONNECT)) timing.fail();
+		else timing.fail(Timing.CONNECT);
+	}
+
+	/**
+	 * Read a whole response body into a pooled buffer, then decode it from UTF-8.
+	 * @throws IOException if the body is interrupted, like by the read timeout: a truncated body is never returned
+	 */
+	private static String readBody(InputStream in, int length) throws IOException {
+		if(in == null) return "";
+		byte[] buf = BUFFERS.acquire(length>0 ? Math.min(length, MAX_PRESIZE)+1 : BUF_LENGTH);
+		int    len = 0;
+		try {
+			for(int n; (n = in.read(buf, len, buf.length-len)) != -1;)
+				if((len += n) == buf.length) buf = BUFFERS.grow(buf, len);
+			return new String(buf, 0, len, UTF8);
+		} finally {
+			BUFFERS.release(buf);
+		}
+	}
+
+	/**
+	 * @return the milliseconds left before a deadline, at least 1 since 0 means no timeout for a connection
+	 * @throws SocketTimeoutException if the deadline has passed
+	 */
+	static int remaining(long deadline) throws SocketTimeoutException {
+		long left = deadline - System.currentTimeMillis();
+		if(left <= 0) throw new SocketTimeoutException(ERR_EXPIRED);
+		return (int)Math.min(left, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Obtain the counting factory of a host; the pool of idle connections reuses only the connections created by the
+	 * same factory, so there is a single factory per host and per underlying factory.
+	 */
+	private CountingFactory factoryOf(URL url, SSLSocketFactory delegate) {
+		String key = keyOf(url);
+		for(;;) {
+			CountingFactory f = factories.get(key);
+			if(f!=null && f.delegate==delegate) return f;
+			CountingFactory n = new CountingFactory(delegate);
+			if(f==null ? factories.putIfAbsent(key, n)==null : factories.replace(key, f, n)) return n;
+		}
+	}
+
+	private static String keyOf(URL url) {
+		int port = url.getPort();
+		return url.getHost() + ':' + (port<0 ? url.getDefaultPort() : port);
+	}
+
+	/**
+	 * @brief SSL socket factory counting the connections it opens, each one with a new socket.
+	 * It does not create unconnected sockets, so that HttpsURLConnection connects a plain socket first, then layers
+	 * the TLS socket on it: the end of the TCP connect is thus marked in the timing of the connecting thread.
+	 */
+	private static final class CountingFactory extends SSLSocketFactory
+	{
+		CountingFactory(SSLSocketFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return delegate.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			connections.incrementAndGet();
+			Timing timing = CONNECTING.get();
+			if(timing != null) timing.end(Timing.CONNECT);
+			return delegate.createSocket(s, host, port, autoClose);
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			connections.incrementAndGet();
+			return delegate.createSocket(host, port);
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			connections.incrementAndGet();
+			return delegate.createSocket(host, port, localHost, localPort);
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			connections.incrementAndGet();
+			return delegate.createSocket(host, port);
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			connections.incrementAndGet();
+			return delegate.createSocket(address, port, localAddress, localPort);
+		}
+
+		final SSLSocketFactory delegate;
+		final AtomicLong       connections = new AtomicLong();
+		final AtomicLong       exchanges   = new AtomicLong();
+	}
+
+	static final String ERR_EXPIRED = "deadline expired";
+
+	private static final int     BUF_LENGTH  = 8*1024;
+	private static final int     MAX_PRESIZE = 16*1024*1024;
+	private static final Charset UTF8        = Charset.forName("UTF-8");
+
+	/** Response buffers shared by all the threads sending requests; buffers over 1 MB are not kept. */
+	private static final BufferPool BUFFERS = new BufferPool(BUF_LENGTH, 64, 1024*1024);
+
+	/** Timing of the exchange connecting in the current thread, if any. */
+	private static final ThreadLocal<Timing> CONNECTING = new ThreadLocal<Timing>();
+
+	private final SSLSocketFactory                          socketFactory;
+	private final ConcurrentHashMap<String,CountingFactory> factories = new ConcurrentHashMap<String,CountingFactory>();
+}
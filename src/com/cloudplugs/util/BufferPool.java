@@ -0,0 +1,131 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @brief Lock-free pool of reusable byte arrays, for I/O buffers of short-lived operations.
+ * The pooled arrays are kept in a fixed number of slots; a thread starts looking for a free slot from the one
+ * matching its identifier, so that threads rarely contend for the same slot. Unlike thread-local buffers, the pooled
+ * arrays are shared by short-lived threads too, like the virtual threads running each job of a spooler.
+ * Arrays larger than the retention cap are never pooled, so that a single huge operation does not pin its memory.
+ * When the pool is empty a new array is allocated, when it is full a released array is left to the garbage collector.
+ * This class is for internal usage.
+ */
+public final class BufferPool
+{
+	/**
+	 * Create a new pool.
+	 * @param size the minimum size of the arrays obtained from this pool
+	 * @param slots the maximum number of pooled arrays, rounded up to a power of two
+	 * @param maxSize the size of the largest array kept by this pool
+	 */
+	public BufferPool(int size, int slots, int maxSize) {
+		if(size < 1) throw new IllegalArgumentException("invalid size");
+		int n = 1;
+		while(n < slots) n <<= 1;
+		this.size    = size;
+		this.maxSize = Math.max(size, maxSize);
+		this.mask    = n - 1;
+		this.pool    = new AtomicReferenceArray<byte[]>(n);
+	}
+
+	/**
+	 * @return the minimum size of the arrays obtained from this pool
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the size of the largest array kept by this pool
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Obtain an array of at least the minimum size of this pool.
+	 * @return a pooled or a new array, its content is undefined
+	 */
+	public byte[] acquire() {
+		return acquire(size);
+	}
+
+	/**
+	 * Obtain an array of at least the given size.
+	 * @param min the minimum size of the array
+	 * @return a pooled or a new array, its content is undefined
+	 */
+	public byte[] acquire(int min) {
+		if(min <= maxSize) {
+			int start = slot();
+			for(int i=0; i<PROBES; ++i) {
+				int k = (start + i) & mask;
+				byte[] buf = pool.get(k);
+				if(buf!=null && buf.length>=min && pool.compareAndSet(k, buf, null)) return buf;
+			}
+		}
+		return new byte[Math.max(min, size)];
+	}
+
+	/**
+	 * Obtain an array of at least twice the size of the given one, with the same content, then release the given one.
+	 * @param buf the array to grow
+	 * @param len the number of bytes to copy from the start of the given array
+	 * @return the larger array
+	 */
+	public byte[] grow(byte[] buf, int len) {
+		int n = buf.length > Integer.MAX_VALUE/2 ? Integer.MAX_VALUE-8 : buf.length<<1;
+		byte[] res = acquire(n);
+		System.arraycopy(buf, 0, res, 0, len);
+		release(buf);
+		return res;
+	}
+
+	/**
+	 * Give an array back to this pool; the caller must not use it anymore.
+	 * @param buf the array to release, arrays smaller than the minimum size or larger than the retention cap are
+	 *            not pooled
+	 */
+	public void release(byte[] buf) {
+		if(buf==null || buf.length<size || buf.length>maxSize) return;
+		int start = slot();
+		for(int i=0; i<PROBES; ++i) {
+			int k = (start + i) & mask;
+			if(pool.get(k)==null && pool.compareAndSet(k, null, buf)) return;
+		}
+	}
+
+	private int slot() {
+		long id = Thread.currentThread().getId();
+		return (int)(id ^ (id >>> 16)) * PROBES;
+	}
+
+	private static final int PROBES = 4;
+
+	private final int                          size;
+	private final int                          maxSize;
+	private final int                          mask;
+	private final AtomicReferenceArray<byte[]> pool;
+}
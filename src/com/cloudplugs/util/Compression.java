@@ -0,0 +1,245 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * @brief Helper class for the gzip and deflate content codings of HTTP bodies.
+ * Deflaters and inflaters own native memory which is released only when they are garbage collected, so they are
+ * pooled and reused instead of created for each body, like java.util.zip.GZIPInputStream does.
+ * This class is for internal usage.
+ */
+public final class Compression
+{
+	/** Name of the gzip content coding. */
+	public static final String GZIP    = "gzip";
+	/** Name of the deflate (zlib) content coding. */
+	public static final String DEFLATE = "deflate";
+	/** Value of the <tt>Accept-Encoding</tt> header for the supported content codings. */
+	public static final String ACCEPT  = GZIP + ", " + DEFLATE;
+
+	/**
+	 * Compress some data in the gzip format.
+	 * @param data the data to compress
+	 * @param level the compression level, from 1 (fastest) to 9 (smallest)
+	 * @return the gzip member containing the compressed data
+	 */
+	public static byte[] gzip(byte[] data, int level) {
+		Deflater def = acquire(deflaters);
+		if(def == null) def = new Deflater(level, true);
+		else def.setLevel(level);
+		try {
+			def.setInput(data);
+			def.finish();
+			byte[] buf = BUFFERS.acquire(data.length/2 + HEADER.length + 8 + 64);
+			System.arraycopy(HEADER, 0, buf, 0, HEADER.length);
+			int len = HEADER.length;
+			while(!def.finished()) {
+				if(len+8 >= buf.length) buf = BUFFERS.grow(buf, len);
+				len += def.deflate(buf, len, buf.length-8-len);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+			len = putIntLE(buf, len, (int)crc.getValue());
+			len = putIntLE(buf, len, data.length);
+			byte[] res = new byte[len];
+			System.arraycopy(buf, 0, res, 0, len);
+			BUFFERS.release(buf);
+			return res;
+		} finally {
+			def.reset();
+			release(deflaters, def);
+		}
+	}
+
+	/**
+	 * Decode a body stream with the given content coding, while it is read.
+	 * The returned stream gives its inflater back to the pool when closed; an invalid body is reported as an
+	 * IOException while reading, an empty body is decoded as empty.
+	 * @param in the encoded stream
+	 * @param encoding the value of the <tt>Content-Encoding</tt> header, or null
+	 * @return the decoding stream, or the given stream if it has no supported content coding
+	 */
+	public static InputStream decode(InputStream in, String encoding) {
+		if(in==null || encoding==null) return in;
+		encoding = encoding.trim();
+		if(GZIP.equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) return new Decoder(in, true);
+		if(DEFLATE.equalsIgnoreCase(encoding)) return new Decoder(in, false);
+		return in;
+	}
+
+	/**
+	 * @brief Stream inflating a gzip member (checking its trailer) or a zlib stream, with a pooled inflater.
+	 */
+	private static final class Decoder extends InflaterInputStream
+	{
+		Decoder(InputStream in, boolean gzip) {
+			super(in, inflater(gzip), BUF_LENGTH);
+			this.gzip = gzip;
+			this.crc  = gzip ? new CRC32() : null;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(eof) return -1;
+			if(!started) {
+				started = true;
+				if(gzip && !readGzipHeader(in)) {
+					eof = true;
+					return -1;
+				}
+			}
+			int n = super.read(b, off, len);
+			if(n > 0) {
+				if(gzip) crc.update(b, off, n);
+			} else if(n==-1 || inf.finished()) {
+				eof = true;
+				if(gzip) readTrailer();
+				return -1;
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(closed) return;
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				inf.reset();
+				release(gzip ? gzipInflaters : zlibInflaters, inf);
+			}
+		}
+
+		private void readTrailer() throws IOException {
+			byte[] t = new byte[8];
+			int rem = Math.min(inf.getRemaining(), 8);
+			System.arraycopy(buf, len-inf.getRemaining(), t, 0, rem);
+			for(int i=rem; i<8; ++i) {
+				int c = in.read();
+				if(c < 0) throw new EOFException("truncated gzip trailer");
+				t[i] = (byte)c;
+			}
+			if(getIntLE(t, 0) != (int)crc.getValue()) throw new ZipException("corrupt gzip body (crc)");
+			if(getIntLE(t, 4) != (int)inf.getBytesWritten()) throw new ZipException("corrupt gzip body (size)");
+		}
+
+		private final boolean gzip;
+		private final CRC32   crc;
+		private boolean       started;
+		private boolean       eof;
+		private boolean       closed;
+	}
+
+	private static Inflater inflater(boolean gzip) {
+		Inflater inf = acquire(gzip ? gzipInflaters : zlibInflaters);
+		return inf==null ? new Inflater(gzip) : inf;
+	}
+
+	/**
+	 * @return false if the stream is empty
+	 */
+	private static boolean readGzipHeader(InputStream in) throws IOException {
+		int c = in.read();
+		if(c < 0) return false;
+		if(c!=0x1f || readByte(in)!=0x8b) throw new ZipException("not in gzip format");
+		if(readByte(in) != Deflater.DEFLATED) throw new ZipException("unsupported gzip compression method");
+		int flags = readByte(in);
+		for(int i=0; i<6; ++i) readByte(in);
+		if((flags & FEXTRA) != 0) {
+			int n = readByte(in) | (readByte(in) << 8);
+			while(n-- > 0) readByte(in);
+		}
+		if((flags & FNAME   ) != 0) while(readByte(in) != 0);
+		if((flags & FCOMMENT) != 0) while(readByte(in) != 0);
+		if((flags & FHCRC   ) != 0) { readByte(in); readByte(in); }
+		return true;
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int c = in.read();
+		if(c < 0) throw new EOFException("truncated gzip header");
+		return c;
+	}
+
+	private static int putIntLE(byte[] b, int off, int v) {
+		b[off  ] = (byte)v;
+		b[off+1] = (byte)(v >>>  8);
+		b[off+2] = (byte)(v >>> 16);
+		b[off+3] = (byte)(v >>> 24);
+		return off + 4;
+	}
+
+	private static int getIntLE(byte[] b, int off) {
+		return (b[off]&0xff) | ((b[off+1]&0xff)<<8) | ((b[off+2]&0xff)<<16) | ((b[off+3]&0xff)<<24);
+	}
+
+	private static <T> T acquire(AtomicReferenceArray<T> pool) {
+		int start = slot();
+		for(int i=0, n=pool.length(); i<n; ++i) {
+			int k = (start + i) & (n - 1);
+			T obj = pool.get(k);
+			if(obj!=null && pool.compareAndSet(k, obj, null)) return obj;
+		}
+		return null;
+	}
+
+	private static <T> void release(AtomicReferenceArray<T> pool, T obj) {
+		int start = slot();
+		for(int i=0, n=pool.length(); i<n; ++i) {
+			int k = (start + i) & (n - 1);
+			if(pool.get(k)==null && pool.compareAndSet(k, null, obj)) return;
+		}
+		if(obj instanceof Deflater) ((Deflater)obj).end();
+		else if(obj instanceof Inflater) ((Inflater)obj).end();
+	}
+
+	private static int slot() {
+		long id = Thread.currentThread().getId();
+		return (int)(id ^ (id >>> 16));
+	}
+
+	private Compression() {}
+
+	private static final int    BUF_LENGTH = 8*1024;
+	private static final int    POOLED     = 16;
+	private static final int    FHCRC      = 2;
+	private static final int    FEXTRA     = 4;
+	private static final int    FNAME      = 8;
+	private static final int    FCOMMENT   = 16;
+	private static final byte[] HEADER     = { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+
+	private static final BufferPool                     BUFFERS        = new BufferPool(BUF_LENGTH, POOLED, 1024*1024);
+	private static final AtomicReferenceArray<Deflater> deflaters      = new AtomicReferenceArray<Deflater>(POOLED);
+	private static final AtomicReferenceArray<Inflater> gzipInflaters  = new AtomicReferenceArray<Inflater>(POOLED);
+	private static final AtomicReferenceArray<Inflater> zlibInflaters  = new AtomicReferenceArray<Inflater>(POOLED);
+}
@@ -0,0 +1,153 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @brief Lock-free histogram of non-negative long values with log-linear buckets.
+ * Each power of two is split in 16 linear sub-buckets, so any percentile is reported within about 6% of the recorded
+ * value. Recording a value never allocates memory and never blocks, so it can be used in hot paths.
+ * This class is for internal usage.
+ */
+public final class Histogram
+{
+	public Histogram() {
+		counts = new AtomicLongArray(BUCKETS);
+	}
+
+	/**
+	 * Record a value; negative values are recorded as 0.
+	 * @param value the value to record
+	 */
+	public void record(long value) {
+		if(value < 0) value = 0;
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		for(long m; value > (m = max.get());)
+			if(max.compareAndSet(m, value)) break;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the greatest recorded value or 0 if empty
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values or 0 if empty
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n==0 ? 0 : (double)sum.get() / n;
+	}
+
+	/**
+	 * Obtain the value below which the given percentage of the recorded values fall.
+	 * @param percent the percentile to compute, between 0 and 100
+	 * @return the upper bound of the bucket containing the percentile, never greater than {@link #getMax()}
+	 */
+	public long getPercentile(double percent) {
+		long n = 0;
+		for(int i=0; i<BUCKETS; ++i) n += counts.get(i);
+		if(n == 0) return 0;
+		long rank = (long)Math.ceil(n * Math.min(Math.max(percent, 0), 100) / 100);
+		if(rank < 1) rank = 1;
+		for(int i=0; i<BUCKETS; ++i) {
+			rank -= counts.get(i);
+			if(rank <= 0) return Math.min(upperOf(i), max.get());
+		}
+		return max.get();
+	}
+
+	public long getP50() {
+		return getPercentile(50);
+	}
+
+	public long getP99() {
+		return getPercentile(99);
+	}
+
+	public long getP999() {
+		return getPercentile(99.9);
+	}
+
+	/**
+	 * Forget all the recorded values.
+	 */
+	public void reset() {
+		for(int i=0; i<BUCKETS; ++i) counts.set(i, 0);
+		count.set(0);
+		sum  .set(0);
+		max  .set(0);
+	}
+
+	/**
+	 * @return a new histogram containing the values recorded so far by this one
+	 */
+	public Histogram copy() {
+		Histogram h = new Histogram();
+		for(int i=0; i<BUCKETS; ++i) h.counts.set(i, counts.get(i));
+		h.count.set(count.get());
+		h.sum  .set(sum  .get());
+		h.max  .set(max  .get());
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + (long)getMean() + " p50=" + getP50() + " p99=" + getP99()
+		       + " p999=" + getP999() + " max=" + getMax();
+	}
+
+	private static int indexOf(long value) {
+		if(value < SUB) return (int)value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		return (exp - SUB_BITS + 1) * SUB + (int)((value >>> (exp - SUB_BITS)) & (SUB - 1));
+	}
+
+	private static long upperOf(int index) {
+		if(index < SUB) return index;
+		int exp = index / SUB - 1 + SUB_BITS;
+		long low = (1L << exp) | ((long)(index % SUB) << (exp - SUB_BITS));
+		return low + (1L << (exp - SUB_BITS)) - 1;
+	}
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB      = 1 << SUB_BITS;
+	private static final int BUCKETS  = (64 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong      count = new AtomicLong(0);
+	private final AtomicLong      sum   = new AtomicLong(0);
+	private final AtomicLong      max   = new AtomicLong(0);
+}
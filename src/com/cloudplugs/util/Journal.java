@@ -0,0 +1,412 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * @brief Append-only journal of binary records, stored in memory-mapped segment files.
+ * Each appended record gets a sequence number and stays live until it is marked as done; the live records found in
+ * the segment files are loaded again when a journal with the same directory and name is opened (see
+ * {@link #getPending()}), so that the work they describe can be replayed after a restart.
+ * <br/><br/>
+ * Records are written in the current segment, which is rolled when full. A segment is deleted as soon as all its
+ * records are done, while older segments with less than half of live bytes are compacted by copying their live records
+ * in the current segment; so the total size of the journal stays proportional to its live records.
+ * <br/><br/>
+ * Writes go to the OS page cache, so they survive a crash of the JVM; to survive a crash of the OS they must be synced
+ * to disk, every given number of records and/or every given milliseconds (see {@link #setSync(int, long)}), trading
+ * throughput for durability. Done marks are never synced explicitly: at worst a done record is replayed again.
+ * This class is for internal usage.
+ */
+public class Journal
+{
+	/** Default size in bytes of a segment file. */
+	public static final int DEF_SEGMENT_SIZE = 4*1024*1024;
+
+	private static final String EXT           = ".jnl";
+	private static final int    MAGIC         = 0x434c504a;
+	private static final int    FILE_HEADER   = 4;
+	private static final int    RECORD_HEADER = 17;
+	private static final byte   STATE_NONE    = 0;
+	private static final byte   STATE_LIVE    = 1;
+	private static final byte   STATE_DONE    = 2;
+	private static final int    MIN_SEGMENT   = 4096;
+
+	/**
+	 * Open the journal with the given name in a directory, loading the live records of its existing segments.
+	 * @param dir the directory of the segment files, created if missing
+	 * @param name the name of the journal, used as prefix of its segment files
+	 * @throws IOException if the directory or a segment file cannot be accessed
+	 */
+	public Journal(File dir, String name) throws IOException {
+		this(dir, name, DEF_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Open the journal with the given name in a directory, loading the live records of its existing segments.
+	 * @param dir the directory of the segment files, created if missing
+	 * @param name the name of the journal, used as prefix of its segment files
+	 * @param segmentSize the size in bytes of a new segment file; bigger records get a segment of their own size
+	 * @throws IOException if the directory or a segment file cannot be accessed
+	 */
+	public Journal(File dir, String name, int segmentSize) throws IOException {
+		if(dir==null || name==null) throw new NullPointerException("null journal path");
+		if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+		this.dir         = dir;
+		this.name        = name;
+		this.segmentSize = Math.max(segmentSize, MIN_SEGMENT);
+		load();
+		roll(0);
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of live records
+	 */
+	public synchronized int size() {
+		return live.size();
+	}
+
+	/**
+	 * @return the number of segment files in use
+	 */
+	public synchronized int getSegments() {
+		return segments.size();
+	}
+
+	public int getSyncEvery() {
+		return syncEvery;
+	}
+
+	public long getSyncInterval() {
+		return syncInterval;
+	}
+
+	/**
+	 * Set the group commit policy of this journal; with both values at 0, records are never synced explicitly.
+	 * @param every sync after this number of appended records, 1 to sync each record or 0 to disable
+	 * @param interval sync the appended records every this milliseconds, 0 to disable
+	 */
+	public synchronized void setSync(int every, long interval) {
+		syncEvery    = Math.max(every, 0);
+		syncInterval = Math.max(interval, 0);
+		if(syncInterval>0 && syncer==null && !closed) {
+			syncer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					syncLoop();
+				}
+			}, "journal-" + name);
+			syncer.setDaemon(true);
+			syncer.start();
+		}
+	}
+
+	/**
+	 * Append a new live record.
+	 * @param data the content of the record
+	 * @return the sequence number of the record, to pass to {@link #done(long)}
+	 * @throws IOException if a new segment file cannot be created
+	 */
+	public synchronized long append(byte[] data) throws IOException {
+		if(closed) throw new IOException("journal closed");
+		long seq = ++lastSeq;
+		write(seq, data);
+		if(++unsynced>=syncEvery && syncEvery>0) sync();
+		return seq;
+	}
+
+	/**
+	 * Mark a record as done, so that it is not loaded anymore; unknown sequence numbers are ignored.
+	 * @param seq the sequence number of the record
+	 */
+	public synchronized void done(long seq) {
+		Slot slot = live.remove(seq);
+		if(slot==null || closed) return;
+		Segment seg = slot.seg;
+		seg.buf.put(slot.pos, STATE_DONE);
+		seg.live      -= 1;
+		seg.liveBytes -= RECORD_HEADER + slot.len;
+		if(seg.live==0 && seg!=active) delete(seg);
+	}
+
+	/**
+	 * Obtain the content of the live records, typically to replay them after opening this journal.
+	 * @return a new map from the sequence numbers to the contents of the live records, sorted by sequence number
+	 */
+	public synchronized Map<Long,byte[]> getPending() {
+		Map<Long,byte[]> res = new TreeMap<Long,byte[]>();
+		for(Map.Entry<Long,Slot> e : live.entrySet())
+			res.put(e.getKey(), read(e.getValue()));
+		return res;
+	}
+
+	/**
+	 * Flush all the written records to disk.
+	 */
+	public synchronized void sync() {
+		for(Segment seg : segments) {
+			if(!seg.dirty) continue;
+			seg.buf.force();
+			seg.dirty = false;
+		}
+		unsynced = 0;
+	}
+
+	/**
+	 * Copy the live records of the old segments with less than half of live bytes in the current segment,
+	 * then delete such segments. This method is also called each time the current segment is rolled.
+	 * @throws IOException if a new segment file cannot be created
+	 */
+	public synchronized void compact() throws IOException {
+		if(closed || compacting) return;
+		compacting = true;
+		try {
+			List<Segment> sparse = new ArrayList<Segment>();
+			for(Segment seg : segments)
+				if(seg!=active && seg.liveBytes<seg.buf.capacity()/2) sparse.add(seg);
+			if(sparse.isEmpty()) return;
+			for(Map.Entry<Long,Slot> e : live.entrySet()) {
+				Slot slot = e.getValue();
+				if(!sparse.contains(slot.seg)) continue;
+				byte[] data = read(slot);
+				slot.seg.live      -= 1;
+				slot.seg.liveBytes -= RECORD_HEADER + slot.len;
+				write(e.getKey(), data);
+			}
+			sync();
+			for(Segment seg : sparse)
+				if(seg.live == 0) delete(seg);
+		} finally {
+			compacting = false;
+		}
+	}
+
+	/**
+	 * Sync and close this journal; the segment files are kept for the next opening.
+	 */
+	public synchronized void close() {
+		if(closed) return;
+		sync();
+		if(active.live == 0) delete(active);
+		closed = true;
+		if(syncer != null) syncer.interrupt();
+		notifyAll();
+	}
+
+	private void write(long seq, byte[] data) throws IOException {
+		int size = RECORD_HEADER + data.length;
+		if(active.buf.remaining() < size+1) roll(size+1);
+		Segment seg = active;
+		MappedByteBuffer buf = seg.buf;
+		int pos = buf.position();
+		crc.reset();
+		crc.update(data, 0, data.length);
+		buf.position(pos + 1);
+		buf.putLong(seq).putInt(data.length).putInt((int)crc.getValue()).put(data);
+		// the state is written last, so that a torn record is never loaded
+		buf.put(pos, STATE_LIVE);
+		seg.live      += 1;
+		seg.liveBytes += size;
+		seg.dirty      = true;
+		Slot slot = live.get(seq);
+		if(slot == null) live.put(seq, new Slot(seg, pos, data.length));
+		else slot.move(seg, pos);
+	}
+
+	private byte[] read(Slot slot) {
+		byte[] data = new byte[slot.len];
+		MappedByteBuffer buf = slot.seg.buf.duplicate();
+		buf.position(slot.pos + RECORD_HEADER);
+		buf.get(data);
+		return data;
+	}
+
+	private void roll(int minSize) throws IOException {
+		Segment old = active;
+		active = open(++lastSegment, Math.max(segmentSize, FILE_HEADER+minSize), true);
+		segments.add(active);
+		if(old == null) return;
+		if(old.live == 0) delete(old);
+		else compact();
+	}
+
+	private void load() throws IOException {
+		File[] files = dir.listFiles();
+		if(files == null) return;
+		String prefix = name + '-';
+		Map<Long,File> found = new HashMap<Long,File>();
+		for(File f : files) {
+			String n = f.getName();
+			if(!n.startsWith(prefix) || !n.endsWith(EXT)) continue;
+			try {
+				found.put(Long.parseLong(n.substring(prefix.length(), n.length()-EXT.length())), f);
+			} catch(NumberFormatException e) {}
+		}
+		Long[] numbers = found.keySet().toArray(new Long[found.size()]);
+		Arrays.sort(numbers);
+		for(Long number : numbers) {
+			lastSegment = number;
+			Segment seg = open(number, (int)Math.min(found.get(number).length(), Integer.MAX_VALUE), false);
+			if(seg == null) {
+				found.get(number).delete();
+				continue;
+			}
+			scan(seg);
+			if(seg.live == 0) delete(seg);
+			else segments.add(seg);
+		}
+	}
+
+	private void scan(Segment seg) {
+		MappedByteBuffer buf = seg.buf;
+		int limit = buf.capacity();
+		for(int pos=FILE_HEADER; pos+RECORD_HEADER<=limit;) {
+			byte state = buf.get(pos);
+			if(state == STATE_NONE) break;
+			long seq = buf.getLong(pos + 1);
+			int  len = buf.getInt (pos + 9);
+			if(len<0 || len>limit-pos-RECORD_HEADER) break;
+			if(seq > lastSeq) lastSeq = seq;
+			if(state == STATE_LIVE) {
+				Slot slot = new Slot(seg, pos, len);
+				crc.reset();
+				crc.update(read(slot));
+				if((int)crc.getValue() != buf.getInt(pos + 13)) break;
+				Slot prev = live.put(seq, slot);
+				// a record copied by an interrupted compaction is found twice: keep the newest copy
+				if(prev != null) {
+					prev.seg.live      -= 1;
+					prev.seg.liveBytes -= RECORD_HEADER + prev.len;
+				}
+				seg.live      += 1;
+				seg.liveBytes += RECORD_HEADER + len;
+			}
+			pos += RECORD_HEADER + len;
+		}
+	}
+
+	private Segment open(long number, int size, boolean create) throws IOException {
+		File file = new File(dir, name + '-' + number + EXT);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if(create) raf.setLength(size);
+			else if(size < FILE_HEADER) return null;
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if(create) buf.putInt(MAGIC);
+			else if(buf.getInt() != MAGIC) return null;
+			return new Segment(file, buf);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void delete(Segment seg) {
+		segments.remove(seg);
+		// the mapping is released by the garbage collector, the file can be deleted meanwhile on POSIX systems
+		if(!seg.file.delete()) seg.file.deleteOnExit();
+	}
+
+	private void syncLoop() {
+		synchronized(this) {
+			while(!closed && syncInterval>0) {
+				try { wait(syncInterval); }
+				catch(InterruptedException e) { break; }
+				if(unsynced > 0) sync();
+			}
+			syncer = null;
+		}
+	}
+
+	/**
+	 * @brief A memory-mapped segment file.
+	 */
+	private static final class Segment
+	{
+		Segment(File file, MappedByteBuffer buf) {
+			this.file = file;
+			this.buf  = buf;
+		}
+
+		final File             file;
+		final MappedByteBuffer buf;
+		int                    live;
+		long                   liveBytes;
+		boolean                dirty;
+	}
+
+	/**
+	 * @brief Location of a live record.
+	 */
+	private static final class Slot
+	{
+		Slot(Segment seg, int pos, int len) {
+			this.seg = seg;
+			this.pos = pos;
+			this.len = len;
+		}
+
+		void move(Segment seg, int pos) {
+			this.seg = seg;
+			this.pos = pos;
+		}
+
+		Segment   seg;
+		int       pos;
+		final int len;
+	}
+
+	private final File              dir;
+	private final String            name;
+	private final int               segmentSize;
+	private final List<Segment>     segments = new ArrayList<Segment>();
+	private final Map<Long,Slot>    live     = new TreeMap<Long,Slot>();
+	private final CRC32             crc      = new CRC32();
+	private Segment                 active;
+	private long                    lastSeq      = 0;
+	private long                    lastSegment  = 0;
+	private int                     unsynced     = 0;
+	private volatile int            syncEvery    = 0;
+	private volatile long           syncInterval = 0;
+	private Thread                  syncer;
+	private boolean                 closed;
+	private boolean                 compacting;
+}
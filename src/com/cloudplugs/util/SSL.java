@@ -39,7 +39,9 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
@@ -47,6 +49,9 @@ import javax.net.ssl.X509TrustManager;
 /**
  * @brief Tool class for easy manipulation of CA certificates over the SSL network.
  * The developer should avoid a direct usage of this class when connecting to an official CloudPlugs server.
+ * The library does not install anything process-wide by itself: its HTTPS connections use the socket factory given by
+ * {@link #getSocketFactory()}, or a dedicated one from {@link #newContext(int, int)}, both trusting the official
+ * CloudPlugs server unless {@link #trustEveryone()} or {@link #trustCA(Certificate)} are invoked.
  */
 public final class SSL
 {
@@ -56,6 +61,7 @@ public final class SSL
 	 * Disable the peer and host verification when establishing any SSL connection, including HTTPS ones.
 	 * This will allow any SSL connection also with untrusted peers in a easy way.
 	 * The invocation of this method is discouraged due to security reasons, because it will permit Man-In-The-Middle attacks.
+	 * Like {@link #trustCA(Certificate)}, it also installs the default socket factory of HttpsURLConnection.
 	 */
 	public static void trustEveryone() {
 		try {
@@ -67,8 +73,7 @@ public final class SSL
 					}
 				}
 			);
-			SSLContext ctx = SSLContext.getInstance(DEF_SSL_PROTO);
-			ctx.init(null,
+			trust(
 				new X509TrustManager[]{
 					new X509TrustManager() {
 						@Override
@@ -80,10 +85,8 @@ public final class SSL
 							return null;
 						}
 					}
-				},
-				new SecureRandom()
+				}
 			);
-			HttpsURLConnection.setDefaultSSLSocketFactory(ctx.getSocketFactory());
 		} catch(Exception e) { // should never happen
 			throw new RuntimeException(e);
 		}
@@ -91,7 +94,8 @@ public final class SSL
 
 	/**
 	 * Allow safe SSL connections to the official CloudPlugs server.
-	 * The developer does not need to invoke this method, it will be automatically invoked by other classes of the library.
+	 * The library trusts the official CloudPlugs server by default, this method also installs the default socket
+	 * factory of HttpsURLConnection.
 	 * @throws KeyManagementException
 	 * @throws KeyStoreException
 	 * @throws CertificateException
@@ -103,7 +107,8 @@ public final class SSL
 	}
 
 	/**
-	 * Allow safe SSL connections to any server is using the specified certificate.
+	 * Allow safe SSL connections to any server is using the specified certificate, instead of the official CloudPlugs
+	 * server; the default socket factory of HttpsURLConnection is installed too.
 	 * @param ca the certificate to trust
 	 * @throws KeyManagementException
 	 * @throws KeyStoreException
@@ -112,7 +117,68 @@ public final class SSL
 	 * @throws IOException
 	 */
 	public static void trustCA(Certificate ca) throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
-		HttpsURLConnection.setDefaultSSLSocketFactory(getSocketFactoryOf(ca));
+		trust(getTrustManagerFactoryOf(ca).getTrustManagers());
+	}
+
+	/**
+	 * Obtain the socket factory shared by the HTTPS connections of the library without a dedicated SSL context.
+	 * @return the socket factory trusting the official CloudPlugs server, or the peers allowed by the last invocation of
+	 *         {@link #trustEveryone()} or {@link #trustCA(Certificate)}
+	 */
+	public static SSLSocketFactory getSocketFactory() {
+		SSLSocketFactory factory = defaultFactory;
+		if(factory == null) {
+			synchronized(SSL.class) {
+				if(defaultFactory == null) defaultFactory = newContext(0, 0).getSocketFactory();
+				factory = defaultFactory;
+			}
+		}
+		return factory;
+	}
+
+	/**
+	 * Create a new SSL context with its own cache of sessions, trusting the same peers as {@link #getSocketFactory()}.
+	 * A cached session lets a new connection to the same server resume it with an abbreviated handshake, skipping
+	 * the key exchange and the certificate verification.
+	 * The context should be kept as long as its sessions are useful; note that its socket factory should be obtained
+	 * once as well, because the pooled connections are reused only by the same factory instance.
+	 * @param sessionCacheSize the maximum number of cached sessions, values lower than 1 keep the JDK default
+	 * @param sessionTimeout the seconds a cached session can be resumed, values lower than 1 keep the JDK default
+	 * @return the new SSL context
+	 */
+	public static SSLContext newContext(int sessionCacheSize, int sessionTimeout) {
+		try {
+			TrustManager[] managers = trustManagers;
+			if(managers == null) managers = getTrustManagerFactoryOf(getCA(DEF_CERT)).getTrustManagers();
+			return getContextOf(managers, sessionCacheSize, sessionTimeout);
+		} catch(Exception e) { // should never happen
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Create a new SSL context with its own cache of sessions (see {@link #newContext(int, int)}).
+	 * @param managers the trust managers of the context
+	 * @param sessionCacheSize the maximum number of cached sessions, values lower than 1 keep the JDK default
+	 * @param sessionTimeout the seconds a cached session can be resumed, values lower than 1 keep the JDK default
+	 * @return the new SSL context
+	 * @throws KeyManagementException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static SSLContext getContextOf(TrustManager[] managers, int sessionCacheSize, int sessionTimeout) throws KeyManagementException, NoSuchAlgorithmException {
+		SSLContext ctx = SSLContext.getInstance(DEF_SSL_PROTO);
+		ctx.init(null, managers, new SecureRandom());
+		SSLSessionContext sessions = ctx.getClientSessionContext();
+		if(sessionCacheSize > 0) sessions.setSessionCacheSize(sessionCacheSize);
+		if(sessionTimeout > 0) sessions.setSessionTimeout(sessionTimeout);
+		return ctx;
+	}
+
+	private static synchronized void trust(TrustManager[] managers) throws KeyManagementException, NoSuchAlgorithmException {
+		SSLContext ctx = getContextOf(managers, 0, 0);
+		trustManagers  = managers;
+		defaultFactory = ctx.getSocketFactory();
+		HttpsURLConnection.setDefaultSSLSocketFactory(defaultFactory);
 	}
 
 	/**
@@ -233,6 +299,9 @@ public final class SSL
 		return ctx.getSocketFactory();
 	}
 
+	private static volatile TrustManager[]   trustManagers;
+	private static volatile SSLSocketFactory defaultFactory;
+
 	private static final String DEF_SSL_PROTO = "TLS";
 	private static final String DEF_TYPE = "X.509";
 	private static final String DEF_CERT =
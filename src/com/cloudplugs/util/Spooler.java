@@ -21,19 +21,94 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * @brief Generic job spooler implementation in a dedicated thread.
+ * @brief Generic job spooler implementation in one or more dedicated threads.
+ * Producers enqueue jobs without taking any lock: pending jobs are kept in a lock-free linked queue,
+ * while an identifier index allows cancelling and waiting for a single job.
+ * By default a single worker thread executes the jobs in FIFO order; with more workers the jobs are still
+ * dequeued in FIFO order, but they can run (and complete) concurrently.
+ * If a job thread factory is set (see {@link #setJobThreadFactory(ThreadFactory)}), a single dispatcher thread
+ * starts a new thread for each job instead, bounded by a maximum number of jobs in flight; this mode is meant for
+ * virtual threads (see {@link #newVirtualThreadFactory()}), so that blocking jobs cost almost nothing each.
+ * Jobs can be enqueued in named priority lanes (see {@link Lane}): higher priority lanes are always served first,
+ * lanes with the same priority share the workers according to their weights.
+ * The queue can be bounded (see {@link #setCapacity(int, String, long)}): when it is full, the configured overflow
+ * policy is applied and an {@link #EVT_OVERFLOW} event is emitted.
+ * An idle worker waits for new jobs following its idle strategy (see {@link #setIdleStrategy(String)}), trading CPU
+ * for wake-up latency.
+ * The spooler measures its queue depth, the queue time and the service time of its jobs in histograms, and it counts
+ * completed, errored and cancelled jobs; see {@link #getStats()}.
+ * Jobs can be scheduled to run later (see {@link #execAfter(long, Runnable)} and {@link #execAt(long, Runnable)}):
+ * they are kept in a hashed timer wheel, so that adding and cancelling a scheduled job costs O(1) however many they
+ * are, and a dedicated timer thread moves them in their lane when due. Scheduled jobs have an identifier like any
+ * other job, they count in {@link #size()} and they are not bounded by the capacity of the queue.
+ * A {@link Rerunnable} job can ask to be scheduled again when it returns, keeping its identifier.
+ * A job enqueued with a coalescing key (see {@link #exec(Runnable, String, Object)}) replaces in place the pending job
+ * with the same key, if any, so that only the last one runs.
  * This class is for internal usage.
  */
 public class Spooler extends MetaListener implements Runnable
 {
 	public  static final long THREAD_NULL = 0;
 	public  static final int      ID_NULL = 0;
+	/** Default maximum number of jobs in flight when running each job in its own thread. */
+	public  static final int DEF_MAX_IN_FLIGHT = 1024;
+	/** Name of the lane used when no lane is configured. */
+	public  static final String LANE_DEFAULT = "default";
+
+	/** Overflow policy: block the producer until there is room in the queue or the overflow timeout expires. */
+	public  static final String OVERFLOW_BLOCK       = "block";
+	/** Overflow policy: reject the new job by throwing a {@link PlugException}. */
+	public  static final String OVERFLOW_REJECT      = "reject";
+	/** Overflow policy: discard the oldest pending job of the lowest priority lane and enqueue the new one. */
+	public  static final String OVERFLOW_DROP_OLDEST = "dropOldest";
+	/** Overflow policy: discard the new job. */
+	public  static final String OVERFLOW_DROP_NEWEST = "dropNewest";
+	/** Overflow policy: run the new job in the thread of the producer. */
+	public  static final String OVERFLOW_CALLER_RUNS = "callerRuns";
+
+	/** Idle strategy: park until a producer wakes the worker up; no CPU is used while idle. */
+	public  static final String IDLE_BLOCK      = "block";
+	/** Idle strategy: busy-spin on the queue; lowest latency, but a whole CPU is used by each idle worker. */
+	public  static final String IDLE_SPIN       = "spin";
+	/** Idle strategy: busy-spin for a while, then yield the CPU to other threads between checks. */
+	public  static final String IDLE_SPIN_YIELD = "spinYield";
+	/** Idle strategy: busy-spin and yield for a while, then park with an exponential backoff; producers never wake it up. */
+	public  static final String IDLE_SPIN_PARK  = "spinPark";
+
+	/** Event emitted when the queue becomes full, the value is the overflow policy in effect. */
+	public  static final String EVT_OVERFLOW = "overflow";
+
 	private static final String ERR_THREAD_CALL = "forbidden call (wrong thread)";
+	private static final String ERR_FULL        = "spooler queue full";
+	private static final int    SLOT_QUEUE      = 0;
+	private static final int    SLOT_DISCARD    = 1;
+	private static final int    SLOT_RUN        = 2;
+	private static final int    SPIN_ROUNDS     = 1000;
+	private static final int    YIELD_ROUNDS    = 100;
+	private static final long   PARK_MIN        = 1000L;
+	private static final long   PARK_MAX        = 1000000L;
+	private static final long   TICK_NANOS      = 1000000L;
+	private static final int    WHEEL_SIZE      = 512;
 
 	public Spooler() {}
 
@@ -54,7 +129,11 @@ public class Spooler extends MetaListener implements Runnable
 	}
 
 	public synchronized boolean isAlive() {
-		return thread!=null && thread.isAlive();
+		Worker[] w = workers;
+		if(w == null) return false;
+		for(Worker t : w)
+			if(t.isAlive()) return true;
+		return false;
 	}
 
 	public boolean isPaused() {
@@ -62,15 +141,11 @@ public class Spooler extends MetaListener implements Runnable
 	}
 
 	public boolean isEmpty() {
-		synchronized(jobs) {
-			return jobs.isEmpty();
-		}
+		return count.get() == 0;
 	}
 
 	public int size() {
-		synchronized(jobs) {
-			return jobs.size();
-		}
+		return count.get();
 	}
 
 	public boolean getClearOnStop() {
@@ -81,20 +156,259 @@ public class Spooler extends MetaListener implements Runnable
 		this.clearOnStop = clearOnStop;
 	}
 
+	/**
+	 * @return the number of worker threads used when this spooler is started
+	 */
+	public int getWorkers() {
+		return nWorkers;
+	}
+
+	/**
+	 * Set the number of worker threads draining the queue of this spooler.
+	 * The new value is applied at the next start.
+	 * @param n the number of worker threads, values lower than 1 mean 1
+	 */
+	public synchronized void setWorkers(int n) {
+		nWorkers = n<1 ? 1 : n;
+	}
+
+	/**
+	 * @return the maximum number of jobs a worker drains from the queue at once
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set the maximum number of jobs a worker drains from the queue at once and then runs back to back.
+	 * Larger batches lower the dequeue cost per job, but a job enqueued in a higher priority lane meanwhile waits for
+	 * the whole batch, and with more workers a batch is never shared with the other workers.
+	 * Pausing the spooler takes effect at the end of the current batch.
+	 * The new value is applied at the next start.
+	 * @param n the maximum number of jobs drained at once, values lower than 1 mean 1
+	 */
+	public synchronized void setBatchSize(int n) {
+		batchSize = n<1 ? 1 : n;
+	}
+
+	/**
+	 * @return the factory of the threads running each job or null if the jobs are run by the worker threads
+	 */
+	public ThreadFactory getJobThreadFactory() {
+		return jobThreads;
+	}
+
+	/**
+	 * Run each job in its own thread created by the given factory, instead of running it in a worker thread.
+	 * The new value is applied at the next start.
+	 * @param factory the factory creating a thread for each job or null to run the jobs in the worker threads
+	 */
+	public synchronized void setJobThreadFactory(ThreadFactory factory) {
+		jobThreads = factory;
+	}
+
+	/**
+	 * @return the maximum number of jobs running at the same time when a job thread factory is set
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Set the maximum number of jobs running at the same time when a job thread factory is set.
+	 * The new value is applied at the next start.
+	 * @param n the maximum number of jobs in flight, values lower than 1 mean {@link #DEF_MAX_IN_FLIGHT}
+	 */
+	public synchronized void setMaxInFlight(int n) {
+		maxInFlight = n<1 ? DEF_MAX_IN_FLIGHT : n;
+	}
+
+	/**
+	 * Create a factory of virtual threads, if supported by the running JVM.
+	 * @return a new virtual thread factory or null if virtual threads are not available
+	 */
+	public static ThreadFactory newVirtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> cls = Class.forName("java.lang.Thread$Builder");
+			builder = cls.getMethod("name", String.class, long.class).invoke(builder, "spooler-job-", 0L);
+			return (ThreadFactory)cls.getMethod("factory").invoke(builder);
+		} catch(Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the maximum number of pending jobs or 0 if the queue is unbounded
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the policy applied when the queue is full, one of the <tt>OVERFLOW_</tt> constants
+	 */
+	public String getOverflow() {
+		return overflow;
+	}
+
+	/**
+	 * @return the maximum milliseconds a producer is blocked by {@link #OVERFLOW_BLOCK} or 0 for no expiration
+	 */
+	public long getOverflowTimeout() {
+		return overflowTimeout;
+	}
+
+	/**
+	 * @return how many times a job has been enqueued in a full queue
+	 */
+	public long getOverflows() {
+		return overflows.get();
+	}
+
+	/**
+	 * Bound the number of pending jobs of this spooler (running jobs are not counted).
+	 * @param capacity the maximum number of pending jobs or 0 for an unbounded queue
+	 * @param policy the policy to apply when the queue is full, one of the <tt>OVERFLOW_</tt> constants
+	 * @param timeout with {@link #OVERFLOW_BLOCK}, the maximum milliseconds to block the producer before rejecting the job,
+	 *                0 for no expiration
+	 */
+	public void setCapacity(int capacity, String policy, long timeout) {
+		if(!isOverflowPolicy(policy)) throw new IllegalArgumentException("invalid overflow policy: "+policy);
+		this.overflow        = policy.intern();
+		this.overflowTimeout = timeout<0 ? 0 : timeout;
+		this.capacity        = capacity<0 ? 0 : capacity;
+		signalNotFull();
+	}
+
+	/**
+	 * @return the strategy of idle workers, one of the <tt>IDLE_</tt> constants
+	 */
+	public String getIdleStrategy() {
+		return idleStrategy;
+	}
+
+	/**
+	 * Set how idle workers wait for new jobs.
+	 * @param strategy one of the <tt>IDLE_</tt> constants
+	 */
+	public void setIdleStrategy(String strategy) {
+		if(!isIdleStrategy(strategy)) throw new IllegalArgumentException("invalid idle strategy: "+strategy);
+		idleStrategy = strategy.intern();
+	}
+
+	/**
+	 * @param policy a policy name
+	 * @return true if the name is one of the <tt>OVERFLOW_</tt> constants
+	 */
+	public static boolean isOverflowPolicy(String policy) {
+		return OVERFLOW_BLOCK.equals(policy) || OVERFLOW_REJECT.equals(policy) || OVERFLOW_DROP_OLDEST.equals(policy)
+		    || OVERFLOW_DROP_NEWEST.equals(policy) || OVERFLOW_CALLER_RUNS.equals(policy);
+	}
+
+	/**
+	 * @param strategy a strategy name
+	 * @return true if the name is one of the <tt>IDLE_</tt> constants
+	 */
+	public static boolean isIdleStrategy(String strategy) {
+		return IDLE_BLOCK.equals(strategy) || IDLE_SPIN.equals(strategy) || IDLE_SPIN_YIELD.equals(strategy)
+		    || IDLE_SPIN_PARK.equals(strategy);
+	}
+
+	/**
+	 * @return the live lanes of this spooler, sorted by decreasing priority
+	 */
+	public Lane[] getLanes() {
+		return lanes.clone();
+	}
+
+	/**
+	 * @param name the name of the lane to retrieve
+	 * @return the live lane having the given name or null if not found
+	 */
+	public Lane getLane(String name) {
+		for(Lane lane : lanes)
+			if(lane.name.equals(name)) return lane;
+		return null;
+	}
+
+	/**
+	 * Replace the lanes of this spooler; the given instances are used as templates, so they can be shared among spoolers.
+	 * The first given lane is the default one, used when a job is enqueued without lane or with an unknown lane.
+	 * This method can be called only when this spooler is stopped.
+	 * @param templates the lanes to create, at least one
+	 * @throws IllegalStateException if this spooler is started
+	 */
+	public synchronized void setLanes(Lane... templates) {
+		if(templates==null || templates.length==0) throw new IllegalArgumentException("no lanes");
+		if(started) throw new IllegalStateException("spooler started");
+		Lane[] l = new Lane[templates.length];
+		for(int i=0; i<l.length; ++i) {
+			if(templates[i] == null) throw new NullPointerException("null lane");
+			l[i] = templates[i].copy();
+		}
+		defLane = l[0];
+		Arrays.sort(l, Lane.BY_PRIORITY);
+		groups = Group.of(l);
+		lanes  = l;
+	}
+
+	/**
+	 * Take a snapshot of the statistics of this spooler.
+	 * @return the statistics collected since the creation of this spooler or the last {@link #resetStats()}
+	 */
+	public Stats getStats() {
+		return new Stats(this);
+	}
+
+	/**
+	 * Forget the statistics collected so far by this spooler and by its lanes.
+	 */
+	public void resetStats() {
+		completed    .set(0);
+		errored      .set(0);
+		cancelledJobs.set(0);
+		discarded    .set(0);
+		superseded   .set(0);
+		depth      .reset();
+		queueTime  .reset();
+		serviceTime.reset();
+		for(Lane lane : lanes)
+			lane.resetStats();
+	}
+
+	/**
+	 * Count a job as errored; it is meant for jobs reporting a failure without throwing.
+	 */
+	protected void countError() {
+		errored.incrementAndGet();
+	}
+
 	public long idThread() {
-		return thread==null ? THREAD_NULL : thread.getId();
+		Worker[] w = workers;
+		return w==null ? THREAD_NULL : w[0].getId();
 	}
 
 	public boolean isThisThread() {
-		return thread!=null && thread.getId()==Thread.currentThread().getId();
+		Thread t = Thread.currentThread();
+		return t instanceof Worker && ((Worker)t).spooler==this;
 	}
 
 	public synchronized boolean start() {
 		if(started) return false;
-		started = true;
-		running = true;
-		thread  = new Thread(this);
-		thread.start();
+		started  = true;
+		running  = true;
+		notified = false;
+		maxPermits = maxInFlight;
+		permits    = jobThreads==null ? null : new Semaphore(maxPermits);
+		Worker[] w = new Worker[permits==null ? nWorkers : 1];
+		for(int i=0; i<w.length; ++i)
+			w[i] = new Worker(this, batchSize);
+		alive.set(w.length);
+		workers = w;
+		for(Worker t : w)
+			t.start();
+		if(timers.get() > 0) startTicker();
 		return true;
 	}
 
@@ -102,7 +416,9 @@ public class Spooler extends MetaListener implements Runnable
 		if(!started || !running) return false;
 		running = false;
 		if(clearOnStop) clear();
-		thread.interrupt();
+		for(Worker t : workers)
+			t.interrupt();
+		if(ticker != null) ticker.interrupt();
 		return true;
 	}
 
@@ -118,52 +434,181 @@ public class Spooler extends MetaListener implements Runnable
 		synchronized(lockPause) {
 			if(!paused) return false;
 			paused = false;
-			lockPause.notify();
+			lockPause.notifyAll();
 		}
 		return true;
 	}
 
 	public void clear() {
-		synchronized(jobs) {
-			Collection<Runnable> values = jobs.values();
-			jobs.clear();
-			for(Runnable job : values) {
-				synchronized(job) {
-					job.notifyAll();
+		for(Entry entry : index.values())
+			if(entry.cancel())
+				cancelled(entry);
+	}
+
+	public int exec(Runnable job) {
+		return exec(job, defLane);
+	}
+
+	/**
+	 * Enqueue a job in the given lane.
+	 * @param job the job to execute
+	 * @param lane the name of the lane or null for the default lane
+	 * @return the identifier of the enqueued job
+	 */
+	public int exec(Runnable job, String lane) {
+		return exec(job, lane, null);
+	}
+
+	/**
+	 * Enqueue a job in the given lane, coalescing it with the pending job having the same key.
+	 * If a job with the same key is pending, the new job replaces it in place, keeping its identifier and its
+	 * position in the queue (last write wins), and the replaced job is passed to {@link #onSupersede(Runnable)};
+	 * otherwise the job is enqueued as usual. Coalescing is best effort: jobs with the same key enqueued at the same
+	 * time by different threads may all run.
+	 * @param job the job to execute
+	 * @param lane the name of the lane or null for the default lane
+	 * @param key the coalescing key or null to never coalesce the job
+	 * @return the identifier of the enqueued job, shared with the job it replaced, if any
+	 */
+	public int exec(Runnable job, String lane, Object key) {
+		Lane l = lane==null ? null : getLane(lane);
+		return exec(job, l==null ? defLane : l, key);
+	}
+
+	private int exec(Runnable job, Lane lane) {
+		return exec(job, lane, null);
+	}
+
+	private int exec(Runnable job, Lane lane, Object key) {
+		if(job == null) throw new NullPointerException("null job");
+		if(key != null) {
+			Entry entry = keyed.get(key);
+			if(entry != null) {
+				Runnable old = entry.replace(job);
+				if(old != null) {
+					superseded.incrementAndGet();
+					try { onSupersede(old); }
+					catch(Throwable t) { onErr(t); }
+					return entry.id;
 				}
+				keyed.remove(key, entry);
 			}
 		}
+		int slot = reserve();
+		if(slot == SLOT_DISCARD) {
+			discard(job);
+			return ID_NULL;
+		}
+		Entry entry = new Entry(idLast.incrementAndGet(), job, lane, slot==SLOT_QUEUE ? key : null);
+		index.put(entry.id, entry);
+		count.incrementAndGet();
+		if(entry.key != null) keyed.put(key, entry);
+		if(slot == SLOT_QUEUE) {
+			lane.offer(entry);
+			depth.record(queued.get());
+			wakeUp();
+		} else if(entry.begin()) {
+			execute(entry);
+		}
+		return entry.id;
 	}
 
-	public int exec(Runnable job) {
+	/**
+	 * Schedule a job to run at a given time.
+	 * @param time the wall clock time in milliseconds since the epoch, a past time means as soon as possible
+	 * @param job the job to execute
+	 * @return the identifier of the scheduled job
+	 */
+	public int execAt(long time, Runnable job) {
+		return execAt(time, job, null);
+	}
+
+	/**
+	 * Schedule a job to run at a given time in the given lane.
+	 * @param time the wall clock time in milliseconds since the epoch, a past time means as soon as possible
+	 * @param job the job to execute
+	 * @param lane the name of the lane or null for the default lane
+	 * @return the identifier of the scheduled job
+	 */
+	public int execAt(long time, Runnable job, String lane) {
+		return execAfter(time - System.currentTimeMillis(), job, lane);
+	}
+
+	/**
+	 * Schedule a job to run after a delay.
+	 * @param delay the milliseconds to wait before enqueuing the job, 0 or less to enqueue it immediately
+	 * @param job the job to execute
+	 * @return the identifier of the scheduled job
+	 */
+	public int execAfter(long delay, Runnable job) {
+		return execAfter(delay, job, null);
+	}
+
+	/**
+	 * Schedule a job to run after a delay in the given lane.
+	 * The job is enqueued in its lane when the delay expires, so it may wait further behind other jobs.
+	 * @param delay the milliseconds to wait before enqueuing the job, 0 or less to enqueue it immediately
+	 * @param job the job to execute
+	 * @param lane the name of the lane or null for the default lane
+	 * @return the identifier of the scheduled job
+	 */
+	public int execAfter(long delay, Runnable job, String lane) {
+		Lane l = lane==null ? null : getLane(lane);
+		if(l == null) l = defLane;
+		if(delay <= 0) return exec(job, l);
 		if(job == null) throw new NullPointerException("null job");
-		int id;
-		synchronized(jobs) {
-			id = ++idLast;
-			jobs.put(id, job);
-			jobs.notify();
+		Entry entry = new Entry(idLast.incrementAndGet(), job, l, null);
+		index.put(entry.id, entry);
+		count.incrementAndGet();
+		schedule(entry, delay);
+		return entry.id;
+	}
+
+	private void schedule(Entry entry, long delay) {
+		entry.deadline = entry.enqueued + delay*1000000L;
+		timers.incrementAndGet();
+		scheduled.offer(entry);
+		Ticker t = ticker;
+		if(t == null) {
+			if(started) startTicker();
+		} else if(t.sleeping) {
+			LockSupport.unpark(t);
 		}
-		return id;
 	}
 
+	/**
+	 * Called when a job is discarded by an overflow policy, in the thread of the producer.
+	 * This default implementation does nothing.
+	 * @param job the discarded job
+	 */
+	protected void onDiscard(Runnable job) {}
+
+	/**
+	 * Called when a pending job is replaced by a newer job with the same coalescing key, in the thread of the producer.
+	 * This default implementation does nothing.
+	 * @param job the replaced job, which will never run
+	 */
+	protected void onSupersede(Runnable job) {}
+
+	/**
+	 * Called when a pending job is cancelled, in the thread cancelling it.
+	 * This default implementation does nothing.
+	 * @param job the cancelled job
+	 */
+	protected void onCancel(Runnable job) {}
+
 	public boolean cancel(int id) {
 		if(id <= ID_NULL) return false;
-		synchronized(jobs) {
-			Runnable job = jobs.remove(id);
-			if(job == null) return false;
-			if(id == idFirst+1) ++idFirst;
-			synchronized(job) {
-				job.notifyAll();
-			}
-		}
+		Entry entry = index.get(id);
+		if(entry==null || !entry.cancel()) return false;
+		cancelled(entry);
 		return true;
 	}
 
 	public Runnable getJobOf(int id) {
 		if(id <= ID_NULL) return null;
-		synchronized(jobs) {
-			return jobs.get(id);
-		}
+		Entry entry = index.get(id);
+		return entry==null ? null : entry.job;
 	}
 
 	public boolean waitFor(int id) {
@@ -172,25 +617,15 @@ public class Spooler extends MetaListener implements Runnable
 
 	public boolean waitFor(int id, long timeout) {
 		if(isThisThread()) throw new RuntimeException(ERR_THREAD_CALL);
-		Runnable job;
-		synchronized(jobs) {
-			if(id <= ID_NULL) id = idLast;
-			else if(id < idLast) return true;
-			job = jobs.get(id);
-		}
-		if(job == null) return false;
-		synchronized(job) {
-			synchronized(jobs) {
-				if(id < idLast) return true;
-				if(job != jobs.get(id)) return false;
-			}
-			try {
-				job.wait(timeout);
-			} catch(InterruptedException e) {
-				return false;
-			}
+		int last = idLast.get();
+		if(id <= ID_NULL) id = last;
+		Entry entry = index.get(id);
+		if(entry == null) return id>ID_NULL && id<=last;
+		try {
+			return entry.await(timeout);
+		} catch(InterruptedException e) {
+			return false;
 		}
-		return true;
 	}
 
 	public boolean waitForIdle() {
@@ -236,43 +671,19 @@ public class Spooler extends MetaListener implements Runnable
 	@Override
 	public void run() {
 		if(!isThisThread()) throw new RuntimeException(ERR_THREAD_CALL);
-		onStart();
-		while(running && shouldSpool()) {
-			Runnable job = null;
-			synchronized(jobs) {
-				while(job == null) {
-					if(jobs.isEmpty()) {
-						idFirst = idLast;
-						onIdle();
-						if(jobs.isEmpty()) {
-							try {
-								jobs.wait();
-								if(!running) break;
-								onReady();
-							} catch(InterruptedException e) {
-								break;
-							}
-						}
-					} else {
-						jobs.remove(idFirst);
-					}
-					job = jobs.get(++idFirst);
-				}
-			}
-			if(job != null) {
-				try { job.run(); }
-				catch(Throwable t) { onErr(t); }
-				synchronized(job) {
-					synchronized(jobs) {
-						jobs.remove(idFirst);
-					}
-					job.notifyAll();
-				}
-				Thread.yield();
+		Worker self = (Worker)Thread.currentThread();
+		synchronized(this) {
+			if(!notified) {
+				notified = true;
+				onStart();
 			}
 		}
+		Semaphore permits = this.permits;
+		if(permits == null) spool(self);
+		else dispatch(self, permits);
+		if(alive.decrementAndGet() > 0) return;
 		synchronized(this) {
-			thread  = null;
+			workers = null;
 			started = false;
 			onStop();
 			synchronized(lockIdle) {
@@ -284,14 +695,317 @@ public class Spooler extends MetaListener implements Runnable
 		}
 	}
 
+	/**
+	 * Worker loop: drain up to a batch of jobs at a time and run them back to back.
+	 * The drained jobs are started just before running them, so they can still be cancelled meanwhile.
+	 */
+	private void spool(Worker self) {
+		Entry[] batch = self.batch;
+		while(running && shouldSpool()) {
+			int n = 0;
+			for(Entry entry; n<batch.length && (entry = poll())!=null;)
+				batch[n++] = entry;
+			if(n == 0) {
+				if(!sleep(self)) break;
+				continue;
+			}
+			for(int i=0; i<n; ++i) {
+				Entry entry = batch[i];
+				batch[i] = null;
+				if(!entry.begin()) continue;
+				started(entry);
+				execute(entry);
+			}
+		}
+	}
+
+	/**
+	 * Dispatcher loop: start a new thread for each job, up to the maximum number of jobs in flight.
+	 */
+	private void dispatch(Worker self, Semaphore permits) {
+		while(running && shouldSpool()) {
+			try { permits.acquire(); }
+			catch(InterruptedException e) { break; }
+			Entry entry = poll();
+			if(entry==null || !entry.begin()) {
+				permits.release();
+				if(entry==null && !sleep(self)) break;
+				continue;
+			}
+			started(entry);
+			try {
+				jobThreads.newThread(new JobRunner(this, entry, permits)).start();
+			} catch(Throwable t) {
+				permits.release();
+				onErr(t);
+				execute(entry);
+			}
+		}
+		Thread.interrupted();
+		permits.acquireUninterruptibly(maxPermits);
+	}
+
+	private void started(Entry entry) {
+		long wait = System.nanoTime() - entry.enqueued;
+		queueTime.record(wait);
+		entry.lane.record(wait);
+		if(idle.get() && idle.compareAndSet(true, false)) onReady();
+	}
+
+	private boolean sleep(Worker self) {
+		if(count.get()==0 && idle.compareAndSet(false, true)) onIdle();
+		String strategy = idleStrategy;
+		if(strategy != IDLE_BLOCK) {
+			for(int round=0; isQueueEmpty(); ++round) {
+				if(!running || Thread.interrupted()) return false;
+				if(strategy==IDLE_SPIN || round<SPIN_ROUNDS) continue;
+				if(strategy==IDLE_SPIN_YIELD || round<SPIN_ROUNDS+YIELD_ROUNDS) Thread.yield();
+				else LockSupport.parkNanos(this, Math.min(PARK_MIN << Math.min(round-SPIN_ROUNDS-YIELD_ROUNDS, 20), PARK_MAX));
+			}
+			return running;
+		}
+		// the flag is raised again before each check of the queue: a wake-up may have consumed it while another
+		// worker took the job, and a producer unparks only a worker whose flag is raised
+		try {
+			for(;;) {
+				self.sleeping.set(true);
+				if(!isQueueEmpty()) break;
+				if(!running || Thread.interrupted()) return false;
+				LockSupport.park(this);
+			}
+		} finally {
+			self.sleeping.set(false);
+		}
+		return running;
+	}
+
+	/**
+	 * Reserve a slot in the queue, applying the overflow policy if the queue is full.
+	 * @return one of the <tt>SLOT_</tt> constants telling what to do with the new job
+	 */
+	private int reserve() {
+		long deadline = 0;
+		for(;;) {
+			int cap = capacity;
+			if(cap <= 0) {
+				queued.incrementAndGet();
+				return SLOT_QUEUE;
+			}
+			int n = queued.get();
+			if(n < cap) {
+				if(queued.compareAndSet(n, n+1)) return SLOT_QUEUE;
+				continue;
+			}
+			String policy = overflow;
+			overflows.incrementAndGet();
+			if(!full) {
+				full = true;
+				onEvt(EVT_OVERFLOW, policy);
+			}
+			if(policy == OVERFLOW_DROP_NEWEST) return SLOT_DISCARD;
+			if(policy == OVERFLOW_CALLER_RUNS) return SLOT_RUN;
+			if(policy == OVERFLOW_REJECT) throw new PlugException(ERR_FULL);
+			if(policy == OVERFLOW_DROP_OLDEST) {
+				if(!dropOldest()) Thread.yield();
+				continue;
+			}
+			if(deadline == 0) deadline = overflowTimeout<=0 ? Long.MAX_VALUE : System.nanoTime()+overflowTimeout*1000000L;
+			if(!awaitNotFull(deadline)) throw new PlugException(ERR_FULL);
+		}
+	}
+
+	private boolean dropOldest() {
+		Lane[] l = lanes;
+		for(int i=l.length-1; i>=0; --i) {
+			Entry entry = l[i].poll();
+			if(entry == null) continue;
+			dequeued();
+			if(entry.cancel()) {
+				release(entry);
+				discard(entry.job);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void cancelled(Entry entry) {
+		cancelledJobs.incrementAndGet();
+		if(entry.deadline != 0) unscheduled.offer(entry);
+		release(entry);
+		try { onCancel(entry.job); }
+		catch(Throwable t) { onErr(t); }
+	}
+
+	private void discard(Runnable job) {
+		discarded.incrementAndGet();
+		try { onDiscard(job); }
+		catch(Throwable t) { onErr(t); }
+	}
+
+	private boolean awaitNotFull(long deadline) {
+		lockFull.lock();
+		blocked.incrementAndGet();
+		try {
+			while(queued.get() >= capacity && capacity > 0) {
+				long left = deadline - System.nanoTime();
+				if(left <= 0) return false;
+				notFull.awaitNanos(left);
+			}
+			return true;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			blocked.decrementAndGet();
+			lockFull.unlock();
+		}
+	}
+
+	private void dequeued() {
+		int n = queued.decrementAndGet();
+		if(full && n<capacity) full = false;
+		if(blocked.get() > 0) signalNotFull();
+	}
+
+	private void signalNotFull() {
+		lockFull.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			lockFull.unlock();
+		}
+	}
+
+	private boolean isQueueEmpty() {
+		for(Lane lane : lanes)
+			if(!lane.queue.isEmpty()) return false;
+		return true;
+	}
+
+	private Entry poll() {
+		Entry entry = pollLanes();
+		if(entry != null) dequeued();
+		return entry;
+	}
+
+	private Entry pollLanes() {
+		Lane[] l = lanes;
+		if(l.length == 1) return l[0].poll();
+		long now = System.nanoTime();
+		for(Lane lane : l) {
+			if(lane.maxWait <= 0) continue;
+			Entry entry = lane.queue.peek();
+			if(entry!=null && now-entry.enqueued>lane.maxWait*1000000L && (entry = lane.poll())!=null) return entry;
+		}
+		for(Group group : groups) {
+			Entry entry = group.poll();
+			if(entry != null) return entry;
+		}
+		return null;
+	}
+
+	private void execute(Entry entry) {
+		long start = System.nanoTime();
+		inFlight.incrementAndGet();
+		try { entry.job.run(); }
+		catch(Throwable t) {
+			errored.incrementAndGet();
+			onErr(t);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+		long end = System.nanoTime();
+		serviceTime.record(end - start);
+		long rerun = entry.job instanceof Rerunnable ? ((Rerunnable)entry.job).getRerunDelay() : -1;
+		if(rerun >= 0) {
+			entry.enqueued = end;
+			entry.state    = Entry.PENDING;
+			if(rerun == 0) due(entry);
+			else schedule(entry, rerun);
+			return;
+		}
+		completed.incrementAndGet();
+		entry.state = Entry.DONE;
+		release(entry);
+	}
+
+	private synchronized void startTicker() {
+		if(ticker!=null || !running) return;
+		ticker = new Ticker(this);
+		ticker.start();
+	}
+
+	/**
+	 * Timer loop: advance the wheel every tick while there are scheduled jobs, otherwise park until one is added.
+	 */
+	private void tick(Ticker self) {
+		while(running && ticker==self) {
+			synchronized(wheel) {
+				wheel.advance(this, System.nanoTime());
+			}
+			if(timers.get() > 0) {
+				LockSupport.parkNanos(this, TICK_NANOS);
+				continue;
+			}
+			self.sleeping = true;
+			if(timers.get() == 0) LockSupport.park(this);
+			self.sleeping = false;
+		}
+		synchronized(wheel) {
+			wheel.advance(this, System.nanoTime());
+		}
+		synchronized(this) {
+			if(ticker == self) ticker = null;
+		}
+	}
+
+	/**
+	 * Move a scheduled job in its lane, since its time has come.
+	 */
+	private void due(Entry entry) {
+		if(entry.state != Entry.PENDING) return;
+		entry.enqueued = System.nanoTime();
+		queued.incrementAndGet();
+		entry.lane.offer(entry);
+		depth.record(queued.get());
+		wakeUp();
+	}
+
+	private void wakeUp() {
+		Worker[] w = workers;
+		if(w == null) return;
+		for(Worker t : w) {
+			AtomicBoolean sleeping = t.sleeping;
+			if(sleeping.get() && sleeping.compareAndSet(true, false)) {
+				LockSupport.unpark(t);
+				return;
+			}
+		}
+	}
+
+	private void release(Entry entry) {
+		index.remove(entry.id);
+		if(entry.key != null) keyed.remove(entry.key, entry);
+		if(count.decrementAndGet()==0 && idle.compareAndSet(false, true)) onIdle();
+		entry.signal();
+	}
+
 	private boolean shouldSpool() {
 		synchronized(lockPause) {
 			if(paused) {
 				try {
-					onPause();
+					// with many workers, only the first one pausing and the first one resuming notify the listener
+					if(!pauseNotified) {
+						pauseNotified = true;
+						onPause();
+					}
 					while(paused)
 						lockPause.wait();
-					onResume();
+					if(pauseNotified) {
+						pauseNotified = false;
+						onResume();
+					}
 				} catch(InterruptedException e) {
 					return false;
 				}
@@ -300,15 +1014,556 @@ public class Spooler extends MetaListener implements Runnable
 		return true;
 	}
 
-	private volatile boolean started     = false;
-	private volatile boolean running     = false;
-	private volatile boolean paused      = false;
-	private volatile boolean clearOnStop = true;
-	private          Thread  thread      = null;
-	private volatile int     idFirst     = 0;
-	private volatile int     idLast      = 0;
-	private final    Object  lockIdle    = new Object();
-	private final    Object  lockPause   = new Object();
-	private final    Object  lockStop    = new Object();
-	private final Map<Integer,Runnable> jobs = new HashMap<Integer,Runnable>();
+	/**
+	 * @brief Snapshot of the statistics of a spooler.
+	 * Times are in nanoseconds; a job is completed when it has run, even if it has errored.
+	 */
+	public static final class Stats
+	{
+		private Stats(Spooler spooler) {
+			pending     = spooler.queued.get();
+			running     = spooler.inFlight.get();
+			completed   = spooler.completed.get();
+			errored     = spooler.errored.get();
+			cancelled   = spooler.cancelledJobs.get();
+			discarded   = spooler.discarded.get();
+			superseded  = spooler.superseded.get();
+			overflows   = spooler.overflows.get();
+			depth       = spooler.depth.copy();
+			queueTime   = spooler.queueTime.copy();
+			serviceTime = spooler.serviceTime.copy();
+		}
+
+		/**
+		 * @return the number of jobs waiting in the queue
+		 */
+		public int getPending() {
+			return pending;
+		}
+
+		/**
+		 * @return the number of jobs running
+		 */
+		public int getRunning() {
+			return running;
+		}
+
+		public long getCompleted() {
+			return completed;
+		}
+
+		/**
+		 * @return the number of completed jobs which threw or reported a failure
+		 */
+		public long getErrored() {
+			return errored;
+		}
+
+		public long getCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return the number of jobs discarded by an overflow policy
+		 */
+		public long getDiscarded() {
+			return discarded;
+		}
+
+		/**
+		 * @return the number of pending jobs replaced by a newer job with the same coalescing key
+		 */
+		public long getSuperseded() {
+			return superseded;
+		}
+
+		/**
+		 * @return how many times a job has been enqueued in a full queue
+		 */
+		public long getOverflows() {
+			return overflows;
+		}
+
+		/**
+		 * @return the distribution of the number of pending jobs, sampled at each enqueue
+		 */
+		public Histogram getQueueDepth() {
+			return depth;
+		}
+
+		/**
+		 * @return the distribution of the time spent by the jobs in the queue
+		 */
+		public Histogram getQueueTime() {
+			return queueTime;
+		}
+
+		/**
+		 * @return the distribution of the time spent running the jobs
+		 */
+		public Histogram getServiceTime() {
+			return serviceTime;
+		}
+
+		@Override
+		public String toString() {
+			return "pending=" + pending + " running=" + running + " completed=" + completed + " errored=" + errored
+			       + " cancelled=" + cancelled + " discarded=" + discarded + " superseded=" + superseded
+			       + " overflows=" + overflows
+			       + "\ndepth: " + depth + "\nqueue: " + queueTime + "\nservice: " + serviceTime;
+		}
+
+		private final int       pending;
+		private final int       running;
+		private final long      completed;
+		private final long      errored;
+		private final long      cancelled;
+		private final long      discarded;
+		private final long      superseded;
+		private final long      overflows;
+		private final Histogram depth;
+		private final Histogram queueTime;
+		private final Histogram serviceTime;
+	}
+
+	/**
+	 * @brief A job which can ask to run again after a delay, for instance to retry a failed operation without blocking
+	 * a thread of the spooler while waiting.
+	 * A job run again keeps its identifier and its lane, and it stays pending for {@link #waitFor(int)} and
+	 * {@link #cancel(int)} until its last run; it is scheduled like by {@link #execAfter(long, Runnable, String)}.
+	 */
+	public interface Rerunnable extends Runnable
+	{
+		/**
+		 * Called by the spooler right after each run of this job.
+		 * @return the milliseconds to wait before running this job again, 0 to enqueue it again immediately, or a
+		 *         negative value to finish it
+		 */
+		long getRerunDelay();
+	}
+
+	/**
+	 * @brief A named queue of a spooler with its own priority, weight and starvation protection.
+	 * Lanes with higher priority are always served before lanes with lower priority; lanes with the same priority
+	 * are served in a weighted round robin. A lane with a maximum wait time is served before any other lane as soon as
+	 * its oldest job has been waiting longer than that time, so that it cannot starve.
+	 * A lane also collects the queue time of its dispatched jobs.
+	 */
+	public static class Lane
+	{
+		/**
+		 * Create a new lane.
+		 * @param name the name of the lane
+		 * @param priority the strict priority of the lane: higher values are served first
+		 * @param weight the share of the lane among the lanes with the same priority, values lower than 1 mean 1
+		 * @param maxWait maximum milliseconds the oldest job of this lane can wait before being served anyway,
+		 *                0 to disable starvation protection
+		 */
+		public Lane(String name, int priority, int weight, long maxWait) {
+			if(name == null) throw new NullPointerException("null name");
+			this.name     = name;
+			this.priority = priority;
+			this.weight   = weight<1 ? 1 : weight;
+			this.maxWait  = maxWait<0 ? 0 : maxWait;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		public long getMaxWait() {
+			return maxWait;
+		}
+
+		/**
+		 * @return the number of jobs waiting in this lane
+		 */
+		public int getPending() {
+			return pending.get();
+		}
+
+		/**
+		 * @return the number of jobs dispatched from this lane since creation or last {@link #resetStats()}
+		 */
+		public long getDispatched() {
+			return waits.getCount();
+		}
+
+		/**
+		 * @return the average queue time in milliseconds of the dispatched jobs
+		 */
+		public double getQueueTimeAvg() {
+			return waits.getMean() / 1e6;
+		}
+
+		/**
+		 * @return the maximum queue time in milliseconds of the dispatched jobs
+		 */
+		public double getQueueTimeMax() {
+			return waits.getMax() / 1e6;
+		}
+
+		/**
+		 * @return a snapshot of the queue time distribution in nanoseconds of the dispatched jobs
+		 */
+		public Histogram getQueueTime() {
+			return waits.copy();
+		}
+
+		public void resetStats() {
+			waits.reset();
+		}
+
+		@Override
+		public String toString() {
+			return name + " (priority " + priority + ", weight " + weight + ", pending " + pending.get() + ")";
+		}
+
+		Lane copy() {
+			return new Lane(name, priority, weight, maxWait);
+		}
+
+		void offer(Entry entry) {
+			pending.incrementAndGet();
+			queue.offer(entry);
+		}
+
+		Entry poll() {
+			Entry entry = queue.poll();
+			if(entry != null) pending.decrementAndGet();
+			return entry;
+		}
+
+		void record(long wait) {
+			waits.record(wait);
+		}
+
+		private final String name;
+		private final int    priority;
+		private final int    weight;
+		private final long   maxWait;
+		private final AtomicInteger pending = new AtomicInteger(0);
+		private final Histogram     waits   = new Histogram();
+		private final Queue<Entry>  queue   = new ConcurrentLinkedQueue<Entry>();
+
+		static final Comparator<Lane> BY_PRIORITY = new Comparator<Lane>() {
+			@Override
+			public int compare(Lane a, Lane b) {
+				return a.priority<b.priority ? 1 : a.priority>b.priority ? -1 : 0;
+			}
+		};
+	}
+
+	/**
+	 * @brief Lanes having the same priority, served in a weighted round robin.
+	 */
+	private static final class Group
+	{
+		Group(Lane[] lanes) {
+			this.lanes = lanes;
+			int n = 0;
+			for(Lane lane : lanes) n += lane.weight;
+			// smooth weighted round robin: interleave the turns of each lane
+			turns = new int[n];
+			int[] credits = new int[lanes.length];
+			for(int t=0; t<n; ++t) {
+				int best = 0;
+				for(int i=0; i<lanes.length; ++i) {
+					credits[i] += lanes[i].weight;
+					if(credits[i] > credits[best]) best = i;
+				}
+				credits[best] -= n;
+				turns[t] = best;
+			}
+		}
+
+		Entry poll() {
+			if(lanes.length == 1) return lanes[0].poll();
+			int first = turns[(tick.getAndIncrement() & Integer.MAX_VALUE) % turns.length];
+			for(int i=0; i<lanes.length; ++i) {
+				Entry entry = lanes[(first+i) % lanes.length].poll();
+				if(entry != null) return entry;
+			}
+			return null;
+		}
+
+		static Group[] of(Lane[] sorted) {
+			int n = 0;
+			for(int i=0; i<sorted.length; ++i)
+				if(i==0 || sorted[i].priority!=sorted[i-1].priority) ++n;
+			Group[] res = new Group[n];
+			for(int i=0, g=0; i<sorted.length; ++g) {
+				int j = i;
+				while(j<sorted.length && sorted[j].priority==sorted[i].priority) ++j;
+				res[g] = new Group(Arrays.copyOfRange(sorted, i, j));
+				i = j;
+			}
+			return res;
+		}
+
+		private final Lane[]        lanes;
+		private final int[]         turns;
+		private final AtomicInteger tick = new AtomicInteger(0);
+	}
+
+	/**
+	 * @brief Hashed timer wheel of the scheduled jobs, only accessed by the timer thread.
+	 * Each bucket is a doubly linked list of entries, so that a cancelled entry is unlinked in O(1); an entry due
+	 * more than a whole turn ahead waits for the given number of rounds in its bucket.
+	 */
+	private static final class Wheel
+	{
+		void advance(Spooler spooler, long now) {
+			long target = (now - origin) / TICK_NANOS;
+			if(size==0 && tick<target) tick = target;
+			for(Entry entry; (entry = spooler.scheduled.poll())!=null;) {
+				if(entry.state == Entry.PENDING) add(entry);
+				else spooler.timers.decrementAndGet();
+			}
+			for(Entry entry; (entry = spooler.unscheduled.poll())!=null;) {
+				if(entry.bucket < 0) continue;
+				remove(entry);
+				spooler.timers.decrementAndGet();
+			}
+			for(; tick<=target && size>0; ++tick) {
+				for(Entry entry = buckets[(int)(tick & MASK)], next; entry!=null; entry=next) {
+					next = entry.timerNext;
+					if(entry.rounds-- > 0) continue;
+					remove(entry);
+					spooler.timers.decrementAndGet();
+					spooler.due(entry);
+				}
+			}
+		}
+
+		private void add(Entry entry) {
+			long at = (entry.deadline - origin + TICK_NANOS - 1) / TICK_NANOS;
+			if(at < tick) at = tick;
+			int b = (int)(at & MASK);
+			entry.rounds    = (at - tick) / WHEEL_SIZE;
+			entry.bucket    = b;
+			entry.timerPrev = null;
+			entry.timerNext = buckets[b];
+			if(buckets[b] != null) buckets[b].timerPrev = entry;
+			buckets[b] = entry;
+			++size;
+		}
+
+		private void remove(Entry entry) {
+			if(entry.timerPrev == null) buckets[entry.bucket] = entry.timerNext;
+			else entry.timerPrev.timerNext = entry.timerNext;
+			if(entry.timerNext != null) entry.timerNext.timerPrev = entry.timerPrev;
+			entry.timerPrev = entry.timerNext = null;
+			entry.bucket = -1;
+			--size;
+		}
+
+		private static final long MASK = WHEEL_SIZE - 1;
+
+		private final Entry[] buckets = new Entry[WHEEL_SIZE];
+		private final long    origin  = System.nanoTime();
+		private long          tick    = 0;
+		private int           size    = 0;
+	}
+
+	/**
+	 * @brief Thread of the timer wheel, started with the first scheduled job.
+	 */
+	private static final class Ticker extends Thread
+	{
+		Ticker(Spooler spooler) {
+			this.spooler = spooler;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			spooler.tick(this);
+		}
+
+		final    Spooler spooler;
+		volatile boolean sleeping = false;
+	}
+
+	/**
+	 * @brief Thread draining the queue of a spooler.
+	 */
+	private static final class Worker extends Thread
+	{
+		Worker(Spooler spooler, int batchSize) {
+			super(spooler);
+			this.spooler = spooler;
+			this.batch   = new Entry[batchSize];
+		}
+
+		final Spooler       spooler;
+		final Entry[]       batch;
+		final AtomicBoolean sleeping = new AtomicBoolean(false);
+	}
+
+	/**
+	 * @brief Runnable executing a single job in its own thread.
+	 */
+	private static final class JobRunner implements Runnable
+	{
+		JobRunner(Spooler spooler, Entry entry, Semaphore permits) {
+			this.spooler = spooler;
+			this.entry   = entry;
+			this.permits = permits;
+		}
+
+		@Override
+		public void run() {
+			try {
+				spooler.execute(entry);
+			} finally {
+				permits.release();
+			}
+		}
+
+		private final Spooler   spooler;
+		private final Entry     entry;
+		private final Semaphore permits;
+	}
+
+	/**
+	 * @brief Queue node wrapping an enqueued job with its identifier and execution state.
+	 */
+	private static final class Entry
+	{
+		static final int PENDING   = 0;
+		static final int RUNNING   = 1;
+		static final int DONE      = 2;
+		static final int CANCELLED = 3;
+
+		Entry(int id, Runnable job, Lane lane, Object key) {
+			this.id       = id;
+			this.job      = job;
+			this.lane     = lane;
+			this.key      = key;
+			this.enqueued = System.nanoTime();
+		}
+
+		boolean begin() {
+			if(key == null) return STATE.compareAndSet(this, PENDING, RUNNING);
+			synchronized(this) {
+				return STATE.compareAndSet(this, PENDING, RUNNING);
+			}
+		}
+
+		boolean cancel() {
+			if(key == null) return STATE.compareAndSet(this, PENDING, CANCELLED);
+			synchronized(this) {
+				return STATE.compareAndSet(this, PENDING, CANCELLED);
+			}
+		}
+
+		/**
+		 * Replace the job of a pending coalescing entry; a keyed entry changes state only holding its lock.
+		 * @return the replaced job or null if this entry is not pending anymore
+		 */
+		synchronized Runnable replace(Runnable job) {
+			if(state != PENDING) return null;
+			Runnable old = this.job;
+			this.job = job;
+			return old;
+		}
+
+		boolean isFinished() {
+			return state >= DONE;
+		}
+
+		void signal() {
+			CountDownLatch l = latch;
+			if(l != null) l.countDown();
+		}
+
+		boolean await(long timeout) throws InterruptedException {
+			if(isFinished()) return true;
+			CountDownLatch l = latch;
+			if(l == null && !LATCH.compareAndSet(this, null, l = new CountDownLatch(1))) l = latch;
+			if(isFinished()) return true;
+			if(timeout <= 0) {
+				l.await();
+				return true;
+			}
+			return l.await(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		final    int            id;
+		volatile Runnable       job;
+		final    Lane           lane;
+		final    Object         key;
+		long                    enqueued;
+		long                    deadline;
+		volatile int            state = PENDING;
+		volatile CountDownLatch latch;
+		// timer wheel links, only accessed by the timer thread
+		Entry                   timerPrev;
+		Entry                   timerNext;
+		long                    rounds;
+		int                     bucket = -1;
+
+		private static final AtomicIntegerFieldUpdater<Entry> STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+		private static final AtomicReferenceFieldUpdater<Entry,CountDownLatch> LATCH =
+			AtomicReferenceFieldUpdater.newUpdater(Entry.class, CountDownLatch.class, "latch");
+	}
+
+	private volatile boolean       started         = false;
+	private volatile boolean       running         = false;
+	private volatile boolean       paused          = false;
+	private          boolean       pauseNotified   = false;
+	private volatile boolean       clearOnStop     = true;
+	private volatile boolean       notified        = false;
+	private volatile int           nWorkers        = 1;
+	private volatile int           batchSize       = 1;
+	private volatile Worker[]      workers         = null;
+	private volatile ThreadFactory jobThreads      = null;
+	private volatile int           maxInFlight     = DEF_MAX_IN_FLIGHT;
+	private volatile Semaphore     permits         = null;
+	private volatile int           maxPermits      = 0;
+	private final    AtomicBoolean idle            = new AtomicBoolean(false);
+	private final    AtomicInteger alive           = new AtomicInteger(0);
+	private final    AtomicInteger idLast          = new AtomicInteger(ID_NULL);
+	private final    AtomicInteger count           = new AtomicInteger(0);
+	private final    AtomicInteger queued          = new AtomicInteger(0);
+	private final    AtomicInteger inFlight        = new AtomicInteger(0);
+	private final    AtomicInteger blocked         = new AtomicInteger(0);
+	private final    AtomicLong    overflows       = new AtomicLong(0);
+	private final    AtomicLong    completed       = new AtomicLong(0);
+	private final    AtomicLong    errored         = new AtomicLong(0);
+	private final    AtomicLong    cancelledJobs   = new AtomicLong(0);
+	private final    AtomicLong    discarded       = new AtomicLong(0);
+	private final    AtomicLong    superseded      = new AtomicLong(0);
+	private final    Histogram     depth           = new Histogram();
+	private final    Histogram     queueTime       = new Histogram();
+	private final    Histogram     serviceTime     = new Histogram();
+	private volatile int           capacity        = 0;
+	private volatile String        overflow        = OVERFLOW_BLOCK;
+	private volatile long          overflowTimeout = 0;
+	private volatile boolean       full            = false;
+	private volatile String        idleStrategy    = IDLE_BLOCK;
+	private final    ReentrantLock lockFull        = new ReentrantLock();
+	private final    Condition     notFull         = lockFull.newCondition();
+	private final    Object        lockIdle        = new Object();
+	private final    Object        lockPause       = new Object();
+	private final    Object        lockStop        = new Object();
+	private volatile Ticker        ticker          = null;
+	private final    Wheel         wheel           = new Wheel();
+	private final    AtomicInteger timers          = new AtomicInteger(0);
+	private final    Queue<Entry>  scheduled       = new ConcurrentLinkedQueue<Entry>();
+	private final    Queue<Entry>  unscheduled     = new ConcurrentLinkedQueue<Entry>();
+	private volatile Lane          defLane         = new Lane(LANE_DEFAULT, 0, 1, 0);
+	private volatile Lane[]        lanes           = { defLane };
+	private volatile Group[]       groups          = Group.of(lanes);
+	private final Map<Integer,Entry> index = new ConcurrentHashMap<Integer,Entry>();
+	private final ConcurrentHashMap<Object,Entry> keyed = new ConcurrentHashMap<Object,Entry>();
 }
@@ -0,0 +1,167 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.cloudplugs.util.Listener;
+
+/**
+ * @brief Behavior test of the transitions of {@link CircuitBreaker}.
+ * A breaker must open on failures, reject while open, let a single probe through when half-open, close on a good
+ * probe and reopen on a bad one, while ignoring the outcomes of requests permitted before a state change; then many
+ * threads drive a breaker at the same time and its events must follow valid transitions, in order.
+ * Run it with <tt>java com.cloudplugs.rest.CircuitBreakerTest</tt>: it exits with status 1 on failure.
+ */
+public class CircuitBreakerTest
+{
+	private static final long OPEN_TIME = 50;
+	private static final int  THREADS   = 8;
+
+	public static void main(String[] args) throws Exception {
+		transitions();
+		concurrent(args.length>0 ? Integer.parseInt(args[0]) : 20000);
+		System.out.println("OK");
+		System.exit(0);
+	}
+
+	private static void transitions() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(4, 2, 0.5, 100, 1, OPEN_TIME, 1, false);
+		Events         events  = new Events();
+		breaker.setListener(events);
+
+		long stale = breaker.acquire();
+		long p     = breaker.acquire();
+		check(p >= 0, "closed breaker rejected a request");
+		breaker.record(p, 200, 1);
+		p = breaker.acquire();
+		breaker.record(p, Const.ERR_CONN, 1);
+		check(breaker.getState() == CircuitBreaker.OPEN, "one failure of two calls did not open the breaker");
+		check(breaker.acquire() < 0, "open breaker permitted a request");
+		check(breaker.getRejected() == 1, "rejected " + breaker.getRejected());
+		breaker.record(stale, 200, 1);
+		check(breaker.getState() == CircuitBreaker.OPEN, "an outcome permitted while closed changed the open breaker");
+
+		Thread.sleep(OPEN_TIME + 10);
+		long probe = breaker.acquire();
+		check(probe >= 0, "no probe permitted after the open time");
+		check(breaker.getState() == CircuitBreaker.HALF_OPEN, "not half-open after the open time");
+		check(breaker.acquire() < 0, "a second probe permitted");
+		breaker.record(stale, 200, 1);
+		breaker.release(stale);
+		check(breaker.getState() == CircuitBreaker.HALF_OPEN, "an outcome permitted while closed ended the probing");
+		breaker.record(probe, 200, 1);
+		check(breaker.getState() == CircuitBreaker.CLOSED, "a good probe did not close the breaker");
+
+		stale = breaker.acquire();
+		for(int i=0; i<2; ++i) breaker.record(breaker.acquire(), Response.ERR_INTERNAL, 1);
+		check(breaker.getState() == CircuitBreaker.OPEN, "500 responses did not open the breaker");
+		Thread.sleep(OPEN_TIME + 10);
+		probe = breaker.acquire();
+		breaker.record(stale, Const.ERR_TIMEOUT, 1);
+		check(breaker.getState() == CircuitBreaker.HALF_OPEN, "a failure permitted while closed reopened the breaker");
+		breaker.record(probe, 200, 500);
+		check(breaker.getState() == CircuitBreaker.OPEN, "a slow probe did not reopen the breaker");
+
+		Thread.sleep(OPEN_TIME + 10);
+		probe = breaker.acquire();
+		breaker.release(probe);
+		check(breaker.acquire() >= 0, "a released probe did not free its slot");
+
+		String expected = "[open, half-open, closed, open, half-open, open, half-open]";
+		System.out.println("transitions: " + events.list);
+		check(events.list.toString().equals(expected), "events " + events.list + " instead of " + expected);
+	}
+
+	/**
+	 * Drive a breaker from many threads with random outcomes, then check that its events form a valid sequence of
+	 * transitions ending with its current state.
+	 */
+	private static void concurrent(final int calls) throws Exception {
+		final CircuitBreaker breaker = new CircuitBreaker(10, 5, 0.5, 0, 1, 1, 2, false);
+		Events events = new Events();
+		breaker.setListener(events);
+		Thread[] threads = new Thread[THREADS];
+		for(int t=0; t<THREADS; ++t) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for(int i=0; i<calls; ++i) {
+						long permit = breaker.acquire();
+						if(permit < 0) {
+							Thread.yield();
+							continue;
+						}
+						if(random.nextInt(10) == 0) breaker.release(permit);
+						else breaker.record(permit, random.nextInt(3)==0 ? Const.ERR_CONN : 200, 1);
+					}
+				}
+			});
+		}
+		for(Thread t : threads) t.start();
+		for(Thread t : threads) t.join();
+		List<String> list = events.list;
+		System.out.printf("concurrent: %d calls from %d threads, %d transitions%n", THREADS * calls, THREADS, list.size());
+		String state = CircuitBreaker.getName(CircuitBreaker.CLOSED);
+		for(int i=0; i<list.size(); ++i) {
+			String next = list.get(i);
+			check(isValid(state, next), "transition " + i + " from " + state + " to " + next);
+			state = next;
+		}
+		check(state.equals(CircuitBreaker.getName(breaker.getState())), "last event " + state + " but the breaker is "
+			+ CircuitBreaker.getName(breaker.getState()));
+	}
+
+	private static boolean isValid(String from, String to) {
+		String closed = CircuitBreaker.getName(CircuitBreaker.CLOSED);
+		String open   = CircuitBreaker.getName(CircuitBreaker.OPEN);
+		String half   = CircuitBreaker.getName(CircuitBreaker.HALF_OPEN);
+		if(from.equals(closed)) return to.equals(open);
+		if(from.equals(open)) return to.equals(half);
+		return to.equals(open) || to.equals(closed);
+	}
+
+	private static void check(boolean ok, String msg) {
+		if(ok) return;
+		System.err.println("FAILED: " + msg);
+		System.exit(1);
+	}
+
+	/**
+	 * @brief Listener recording the breaker events in the order they are received.
+	 */
+	private static final class Events extends Listener.Stub
+	{
+		@Override
+		public void onEvt(Object evt, Object value) {
+			if(!CircuitBreaker.EVT_BREAKER.equals(evt)) return;
+			synchronized(list) {
+				list.add((String)value);
+			}
+		}
+
+		final List<String> list = new ArrayList<String>();
+	}
+}
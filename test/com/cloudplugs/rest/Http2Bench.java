@@ -0,0 +1,264 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief Throughput benchmark of {@link Http2Transport} against {@link UrlConnectionTransport} as concurrency grows.
+ * A local server answers each request after a fixed think time, over HTTP/1.1 keep-alive connections or over HTTP/2
+ * once a connection is upgraded to h2c; for each level of concurrency, as many threads send requests through each
+ * transport for a while and the requests per second are printed. HTTP/2 multiplexes all the requests on a single
+ * connection, while HttpURLConnection needs a connection per request in flight and pools only a few of them.
+ * Run it with <tt>java com.cloudplugs.rest.Http2Bench [milliseconds per level] [server think time in ms]</tt>.
+ */
+public class Http2Bench
+{
+	private static final int[] LEVELS = { 1, 2, 4, 8, 16, 32, 64 };
+	private static final byte[] BODY  = "{\"value\":1}".getBytes();
+
+	public static void main(String[] args) throws Exception {
+		long millis = args.length>0 ? Long.parseLong(args[0]) : 1000;
+		long think  = args.length>1 ? Long.parseLong(args[1]) : 5;
+		Server server = new Server(think);
+		String url = "http://127.0.0.1:" + server.socket.getLocalPort() + "/";
+		Transport http1 = new UrlConnectionTransport();
+		Transport http2 = new Http2Transport(Http2Transport.DEF_MAX_STREAMS, 0, 0);
+		// the first request upgrades the connection of the HTTP/2 client
+		send(http2, url);
+		send(http1, url);
+		System.out.println("requests/s with a server think time of " + think + " ms, " + millis + " ms per level:");
+		System.out.println("  threads    http/1.1      h2c");
+		for(int threads : LEVELS) {
+			Result r1 = run(http1, url, threads, millis);
+			Result r2 = run(http2, url, threads, millis);
+			System.out.printf("  %7d  %10.0f %8.0f%s%n", threads, r1.rate, r2.rate,
+				r1.errors+r2.errors > 0 ? "  (errors: " + r1.errors + " http/1.1, " + r2.errors + " h2c)" : "");
+		}
+		System.out.println("server connections: " + server.http1.get() + " http/1.1, " + server.http2.get() + " h2c");
+		System.exit(0);
+	}
+
+	private static boolean send(Transport transport, String url) {
+		Request request = new Request(Request.GET, url, "data", null, null);
+		return transport.send(request, 10, null).getStatus() == 200;
+	}
+
+	/**
+	 * Send requests from many threads for a while.
+	 */
+	private static Result run(final Transport transport, final String url, int threads, long millis) throws Exception {
+		final long          end    = System.nanoTime() + millis*1000000L;
+		final AtomicLong    done   = new AtomicLong();
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] senders = new Thread[threads];
+		for(int i=0; i<threads; ++i) {
+			senders[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while(System.nanoTime() < end) {
+						if(send(transport, url)) done.incrementAndGet();
+						else errors.incrementAndGet();
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for(Thread t : senders) t.start();
+		for(Thread t : senders) t.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return new Result(done.get() / seconds, errors.get());
+	}
+
+	/**
+	 * @brief Outcome of a level of concurrency.
+	 */
+	private static final class Result
+	{
+		Result(double rate, int errors) {
+			this.rate   = rate;
+			this.errors = errors;
+		}
+
+		final double rate;
+		final int    errors;
+	}
+
+	/**
+	 * @brief Minimal server of HTTP/1.1 and of HTTP/2 over cleartext, reached by an h2c upgrade.
+	 * The HTTP/2 side decodes no header: any request ended by its HEADERS or DATA frame is answered with a
+	 * <tt>:status 200</tt> (a single byte of the HPACK static table) and the body, after the think time.
+	 */
+	private static final class Server implements Runnable
+	{
+		Server(long think) throws IOException {
+			this.socket = new ServerSocket(0, 256);
+			this.think  = think;
+			Thread acceptor = new Thread(this, "server");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				for(;;) {
+					final Socket s = socket.accept();
+					s.setTcpNoDelay(true);
+					Thread t = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							try { serve(s); }
+							catch(IOException e) {}
+							finally { try { s.close(); } catch(IOException e) {} }
+						}
+					}, "connection");
+					t.setDaemon(true);
+					t.start();
+				}
+			} catch(IOException e) {}
+		}
+
+		private void serve(Socket s) throws IOException {
+			DataInputStream in  = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			OutputStream    out = new BufferedOutputStream(s.getOutputStream());
+			http1.incrementAndGet();
+			for(String line; (line = readLine(in)) != null;) {
+				boolean upgrade = false;
+				int     length  = 0;
+				while((line = readLine(in))!=null && line.length()>0) {
+					String h = line.toLowerCase();
+					if(h.startsWith("upgrade:") && h.contains("h2c")) upgrade = true;
+					else if(h.startsWith("content-length:")) length = Integer.parseInt(h.substring(15).trim());
+				}
+				in.skipBytes(length);
+				sleep(think);
+				if(upgrade) {
+					http1.decrementAndGet();
+					http2.incrementAndGet();
+					out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes("ISO-8859-1"));
+					serveHttp2(in, out);
+					return;
+				}
+				out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + BODY.length + "\r\n\r\n")
+					.getBytes("ISO-8859-1"));
+				out.write(BODY);
+				out.flush();
+			}
+		}
+
+		private void serveHttp2(DataInputStream in, final OutputStream out) throws IOException {
+			// server preface, then the response to the upgraded request on stream 1
+			synchronized(out) {
+				frame(out, SETTINGS, 0, 0, new byte[] { 0, MAX_CONCURRENT_STREAMS, 0, 0, 0, (byte)200 });
+				respond(out, 1);
+			}
+			byte[] preface = new byte[PREFACE_LENGTH];
+			in.readFully(preface);
+			ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+			try {
+				for(;;) {
+					int    length  = in.readUnsignedByte()<<16 | in.readUnsignedShort();
+					int    type    = in.readUnsignedByte();
+					int    flags   = in.readUnsignedByte();
+					final int stream = in.readInt() & 0x7fffffff;
+					byte[] payload = new byte[length];
+					in.readFully(payload);
+					if(type==SETTINGS && (flags & ACK)==0) {
+						synchronized(out) { frame(out, SETTINGS, ACK, 0, new byte[0]); }
+					} else if(type == PING && (flags & ACK)==0) {
+						synchronized(out) { frame(out, PING, ACK, 0, payload); }
+					} else if(type == GOAWAY) {
+						return;
+					} else if((type==HEADERS || type==DATA) && (flags & END_STREAM)!=0) {
+						timer.schedule(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									synchronized(out) { respond(out, stream); }
+								} catch(IOException e) {}
+							}
+						}, think, TimeUnit.MILLISECONDS);
+					}
+				}
+			} finally {
+				timer.shutdownNow();
+			}
+		}
+
+		private static void respond(OutputStream out, int stream) throws IOException {
+			frame(out, HEADERS, END_HEADERS, stream, new byte[] { (byte)0x88 });
+			frame(out, DATA, END_STREAM, stream, BODY);
+		}
+
+		private static void frame(OutputStream out, int type, int flags, int stream, byte[] payload) throws IOException {
+			int length = payload.length;
+			out.write(new byte[] {
+				(byte)(length>>16), (byte)(length>>8), (byte)length, (byte)type, (byte)flags,
+				(byte)(stream>>24), (byte)(stream>>16), (byte)(stream>>8), (byte)stream
+			});
+			out.write(payload);
+			out.flush();
+		}
+
+		private static String readLine(DataInputStream in) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			for(int c; (c = in.read()) != '\n';) {
+				if(c < 0) return sb.length()==0 ? null : sb.toString();
+				if(c != '\r') sb.append((char)c);
+			}
+			return sb.toString();
+		}
+
+		private static void sleep(long millis) {
+			try { Thread.sleep(millis); }
+			catch(InterruptedException e) {}
+		}
+
+		private static final int  DATA                   = 0;
+		private static final int  HEADERS                = 1;
+		private static final int  SETTINGS               = 4;
+		private static final int  PING                   = 6;
+		private static final int  GOAWAY                 = 7;
+		private static final int  ACK                    = 1;
+		private static final int  END_STREAM             = 1;
+		private static final int  END_HEADERS            = 4;
+		private static final byte MAX_CONCURRENT_STREAMS = 3;
+		private static final int  PREFACE_LENGTH         = 24;
+
+		final ServerSocket  socket;
+		final long          think;
+		final AtomicInteger http1 = new AtomicInteger();
+		final AtomicInteger http2 = new AtomicInteger();
+	}
+}
@@ -0,0 +1,117 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloudplugs.util.Journal;
+
+/**
+ * @brief Replay of a journal written longer ago than the timeout of its requests.
+ * Requests enqueued with the default deadline must all be sent after the replay, while a request with an explicit
+ * deadline must still expire. Run it with <tt>java com.cloudplugs.rest.JournalReplayTest</tt>: it exits with status 1
+ * on failure.
+ */
+public class JournalReplayTest
+{
+	private static final int TIMEOUT  = 1;
+	private static final int REQUESTS = 5;
+
+	public static void main(String[] args) throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "journal-replay-" + System.nanoTime());
+		final ServerSocket server = new ServerSocket(0);
+		final AtomicInteger hits = new AtomicInteger();
+		String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+		try {
+			// the spooler is never started, like a process crashed before sending its requests
+			Journal journal = new Journal(dir, "replay");
+			RestSpooler spooler = new RestSpooler();
+			spooler.setJournal(journal);
+			Opts opts = new Opts().setUrl(url).setTimeout(TIMEOUT);
+			for(int i=0; i<REQUESTS; ++i) spooler.request(opts, Request.POST, "data", "{\"n\":" + i + '}', null);
+			Request explicit = new Request(Request.POST, url, "explicit", null, "{}");
+			explicit.setDeadline(System.currentTimeMillis() + TIMEOUT*1000L);
+			spooler.request(explicit, TIMEOUT, null);
+			journal.close();
+
+			Thread.sleep(TIMEOUT*1000L + 500);
+
+			Thread acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for(;;) serve(server.accept(), hits);
+					} catch(Exception e) {}
+				}
+			});
+			acceptor.setDaemon(true);
+			acceptor.start();
+			journal = new Journal(dir, "replay");
+			spooler = new RestSpooler();
+			spooler.setJournal(journal);
+			spooler.start();
+			spooler.waitForIdle(10000);
+			spooler.stop();
+			int pending = journal.size();
+			journal.close();
+			check(hits.get() == REQUESTS, "replayed requests sent: " + hits.get() + " of " + REQUESTS);
+			check(pending == 0, "journal records left: " + pending);
+			System.out.println("OK: " + hits.get() + " replayed requests sent, explicit deadline expired");
+		} finally {
+			server.close();
+			File[] files = dir.listFiles();
+			if(files != null) for(File f : files) f.delete();
+			dir.delete();
+		}
+	}
+
+	private static void check(boolean ok, String msg) {
+		if(ok) return;
+		System.err.println("FAILED: " + msg);
+		System.exit(1);
+	}
+
+	private static void serve(Socket socket, AtomicInteger hits) throws Exception {
+		try {
+			BufferedReader in  = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			OutputStream   out = socket.getOutputStream();
+			String line;
+			while((line = in.readLine()) != null) {
+				int length = 0;
+				while((line = in.readLine())!=null && line.length()>0)
+					if(line.toLowerCase().startsWith("content-length:")) length = Integer.parseInt(line.substring(15).trim());
+				for(int i=0; i<length; ++i) in.read();
+				hits.incrementAndGet();
+				out.write("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 2\r\n\r\n{}".getBytes("ISO-8859-1"));
+				out.flush();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+}
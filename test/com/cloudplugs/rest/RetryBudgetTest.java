@@ -0,0 +1,157 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief Behavior test of {@link RetryPolicy} and of its retry budget.
+ * The policy alone must grant retries only below its attempt limit and while more than half of its budget is left,
+ * taking tokens only for the granted retries; then a spooler sending requests to a server always answering 503 must
+ * stop retrying once the budget is exhausted.
+ * Run it with <tt>java com.cloudplugs.rest.RetryBudgetTest</tt>: it exits with status 1 on failure.
+ */
+public class RetryBudgetTest
+{
+	private static final int    ATTEMPTS    = 3;
+	private static final int    BUDGET      = 10;
+	private static final int    REQUESTS    = 5;
+	private static final int    UNAVAILABLE = Response.ERR_UNAVAILABLE;
+
+	public static void main(String[] args) throws Exception {
+		policy();
+		spooler();
+		System.out.println("OK");
+		System.exit(0);
+	}
+
+	/**
+	 * Drive a policy directly, checking its decisions and its tokens.
+	 */
+	private static void policy() {
+		RetryPolicy policy = new RetryPolicy(ATTEMPTS, 10, 100, null, BUDGET, 0.5);
+		check(policy.nextDelay(1, 404) == -1, "404 retried");
+		check(policy.getTokens() == BUDGET, "a response not retryable overflowed the budget: " + policy.getTokens());
+		check(policy.nextDelay(ATTEMPTS, UNAVAILABLE) == -1, "the last attempt retried");
+		check(policy.getTokens() == BUDGET, "the last attempt took a token: " + policy.getTokens());
+		int granted = 0;
+		for(int i=0; i<BUDGET; ++i) if(policy.nextDelay(1, UNAVAILABLE) >= 0) ++granted;
+		System.out.printf("policy: %d of %d retries granted, %.1f tokens left%n", granted, BUDGET, policy.getTokens());
+		// retries are granted while more than half of the budget is left after taking their token
+		check(granted == BUDGET/2 - 1, granted + " retries granted");
+		check(policy.getTokens() == BUDGET/2 + 1, "denied retries took tokens: " + policy.getTokens());
+		policy.nextDelay(1, 200);
+		policy.nextDelay(1, 200);
+		check(policy.getTokens() == BUDGET/2 + 2, "two successes refilled to " + policy.getTokens());
+		check(policy.nextDelay(1, UNAVAILABLE) >= 0, "retry denied after the refill");
+		check(policy.nextDelay(1, UNAVAILABLE) == -1, "retry granted beyond the budget");
+		for(int attempt=1; attempt<=8; ++attempt) {
+			long cap = Math.min(100, 10L << (attempt-1));
+			for(int i=0; i<100; ++i) {
+				long d = policy.backoff(attempt);
+				check(d>=0 && d<=cap, "backoff(" + attempt + ") = " + d + " beyond " + cap);
+			}
+		}
+	}
+
+	/**
+	 * Send requests one at a time to a failing server: the first requests are retried up to their attempt limit,
+	 * until the shared budget denies any other retry.
+	 */
+	private static void spooler() throws Exception {
+		final ServerSocket  server = new ServerSocket(0);
+		final AtomicInteger hits   = new AtomicInteger();
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for(;;) serve(server.accept(), hits);
+				} catch(Exception e) {}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		RestSpooler spooler = new RestSpooler();
+		spooler.start();
+		try {
+			RetryPolicy   policy   = new RetryPolicy(ATTEMPTS, 1, 5, null, BUDGET, 0.1);
+			String        url      = "http://127.0.0.1:" + server.getLocalPort() + "/";
+			final int[]   statuses = new int[REQUESTS];
+			for(int i=0; i<REQUESTS; ++i) {
+				final int            n    = i;
+				final CountDownLatch done = new CountDownLatch(1);
+				Request request = new Request(Request.GET, url, "data", null, null);
+				request.setRetryPolicy(policy);
+				spooler.request(request, 10, new RestCallback() {
+					@Override
+					public void on(Request request, Response response) {
+						statuses[n] = response.getStatus();
+						done.countDown();
+					}
+				});
+				check(done.await(10, TimeUnit.SECONDS), "request " + i + " not completed");
+			}
+			// a budget of 10 grants 4 retries: 2 requests get all their attempts, the others only the first one
+			int retries = BUDGET/2 - 1;
+			System.out.printf("spooler: %d requests, %d retries, %d exchanges%n", REQUESTS, spooler.getRetries(), hits.get());
+			check(spooler.getRetries() == retries, spooler.getRetries() + " retries instead of " + retries);
+			check(hits.get() == REQUESTS + retries, hits.get() + " exchanges instead of " + (REQUESTS + retries));
+			for(int i=0; i<REQUESTS; ++i) check(statuses[i] == UNAVAILABLE, "request " + i + " completed with " + statuses[i]);
+		} finally {
+			spooler.stop();
+			server.close();
+		}
+	}
+
+	private static void check(boolean ok, String msg) {
+		if(ok) return;
+		System.err.println("FAILED: " + msg);
+		System.exit(1);
+	}
+
+	private static void serve(Socket socket, AtomicInteger hits) throws Exception {
+		try {
+			BufferedReader in  = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			OutputStream   out = socket.getOutputStream();
+			String line;
+			while((line = in.readLine()) != null) {
+				int length = 0;
+				while((line = in.readLine())!=null && line.length()>0)
+					if(line.toLowerCase().startsWith("content-length:")) length = Integer.parseInt(line.substring(15).trim());
+				for(int i=0; i<length; ++i) in.read();
+				hits.incrementAndGet();
+				out.write("HTTP/1.1 503 Service Unavailable\r\nContent-Type: application/json\r\nContent-Length: 2\r\n\r\n{}"
+					.getBytes("ISO-8859-1"));
+				out.flush();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+}
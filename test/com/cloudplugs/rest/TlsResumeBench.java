@@ -0,0 +1,171 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.cloudplugs.util.Histogram;
+import com.cloudplugs.util.SSL;
+
+/**
+ * @brief Latency benchmark of full against resumed TLS handshakes, through {@link UrlConnectionTransport}.
+ * A local HTTPS server, with a self-signed certificate generated by <tt>keytool</tt> at startup, closes the connection
+ * after each response, so that every request opens a new one. With the session cache disabled, each request uses a
+ * new SSL context and pays a full handshake; with the cache enabled, the requests share a context from
+ * {@link SSL#newContext(int, int)} and resume its session. The TLS phase of the timing of the responses is printed
+ * for each protocol version, with the number of handshakes the server saw as resumed.
+ * Run it with <tt>java com.cloudplugs.rest.TlsResumeBench [requests per mode]</tt>.
+ */
+public class TlsResumeBench
+{
+	private static final String[] PROTOCOLS = { "TLSv1.2", "TLSv1.3" };
+	private static final String   PASSWORD  = "secret";
+	private static final int      WARMUP    = 50;
+
+	public static void main(String[] args) throws Exception {
+		int requests = args.length>0 ? Integer.parseInt(args[0]) : 200;
+		File dir = new File(System.getProperty("java.io.tmpdir"), "tls-bench-" + System.nanoTime());
+		File keystore = new File(dir, "bench.p12");
+		try {
+			dir.mkdirs();
+			KeyStore ks = generate(keystore);
+			SSL.trustCA(ks.getCertificate("bench"));
+			System.out.println(requests + " requests per mode, a new connection each, TLS phase:");
+			for(String protocol : PROTOCOLS) {
+				Server server = new Server(ks, protocol);
+				String url = "https://localhost:" + server.socket.getLocalPort() + "/";
+				run(server, url, false, WARMUP);
+				run(server, url, true, WARMUP);
+				report(protocol, "full", server, run(server, url, false, requests), requests);
+				report(protocol, "resumed", server, run(server, url, true, requests), requests);
+				server.socket.close();
+			}
+		} finally {
+			keystore.delete();
+			dir.delete();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Generate a self-signed certificate for localhost with keytool.
+	 */
+	private static KeyStore generate(File keystore) throws Exception {
+		String keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool").getPath();
+		Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "bench", "-keyalg", "EC", "-groupname", "secp256r1",
+			"-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2",
+			"-storetype", "PKCS12", "-keystore", keystore.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+			.redirectErrorStream(true).start();
+		InputStream out = p.getInputStream();
+		while(out.read() != -1);
+		if(p.waitFor() != 0) throw new IllegalStateException("keytool failed");
+		KeyStore ks = KeyStore.getInstance("PKCS12");
+		FileInputStream in = new FileInputStream(keystore);
+		try {
+			ks.load(in, PASSWORD.toCharArray());
+		} finally {
+			in.close();
+		}
+		return ks;
+	}
+
+	/**
+	 * Send requests one at a time, each one on a new connection.
+	 * @param cached true to share a context caching its sessions, false to use a new context for each request
+	 * @return the distribution of the TLS phase of the requests, in nanoseconds
+	 */
+	private static Histogram run(Server server, String url, boolean cached, int requests) {
+		SSLSocketFactory shared = SSL.newContext(16, 300).getSocketFactory();
+		Histogram tls = new Histogram();
+		server.resumed.set(0);
+		for(int i=0; i<requests; ++i) {
+			SSLSocketFactory factory = cached ? shared : SSL.newContext(0, 0).getSocketFactory();
+			Response response = new UrlConnectionTransport(factory).send(new Request(Request.GET, url, "data", null, null), 10, null);
+			if(response.getStatus() != 200) throw new IllegalStateException("request failed: " + response.getMsg());
+			tls.record(response.getTiming().get(Timing.TLS));
+		}
+		return tls;
+	}
+
+	private static void report(String protocol, String mode, Server server, Histogram h, int requests) {
+		System.out.printf("  %-7s %-8s avg %6.3f ms  p50 %6.3f ms  p99 %6.3f ms  (%d of %d resumed)%n", protocol, mode,
+			h.getMean() / 1e6, h.getP50() / 1e6, h.getP99() / 1e6, server.resumed.get(), requests);
+	}
+
+	/**
+	 * @brief HTTPS server answering a single request per connection, counting the resumed sessions.
+	 */
+	private static final class Server implements Runnable
+	{
+		Server(KeyStore ks, String protocol) throws Exception {
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(ks, PASSWORD.toCharArray());
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(kmf.getKeyManagers(), null, null);
+			socket = (SSLServerSocket)context.getServerSocketFactory().createServerSocket(0, 64);
+			socket.setEnabledProtocols(new String[] { protocol });
+			Thread acceptor = new Thread(this, "server");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				for(;;) {
+					SSLSocket s = (SSLSocket)socket.accept();
+					try {
+						long accepted = System.currentTimeMillis();
+						s.setTcpNoDelay(true);
+						s.startHandshake();
+						if(s.getSession().getCreationTime() < accepted) resumed.incrementAndGet();
+						BufferedReader in  = new BufferedReader(new InputStreamReader(s.getInputStream(), "ISO-8859-1"));
+						OutputStream   out = s.getOutputStream();
+						for(String line; (line = in.readLine())!=null && line.length()>0;);
+						out.write("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 2\r\nConnection: close\r\n\r\n{}"
+							.getBytes("ISO-8859-1"));
+						out.flush();
+					} catch(Exception e) {
+					} finally {
+						s.close();
+					}
+				}
+			} catch(Exception e) {}
+		}
+
+		final SSLServerSocket socket;
+		final AtomicInteger   resumed = new AtomicInteger();
+	}
+}
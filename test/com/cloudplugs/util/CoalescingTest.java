@@ -0,0 +1,169 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @brief Behavior test of the keyed coalescing of {@link Spooler}.
+ * Jobs enqueued with the same key in a paused spooler must collapse into the last one, keeping the identifier of the
+ * first; then producers keep replacing the pending job of their key while the workers take them, and every job must
+ * either run or be superseded, exactly once, with the last job of each key always running.
+ * Run it with <tt>java com.cloudplugs.util.CoalescingTest [jobs per producer]</tt>: it exits with status 1 on failure.
+ */
+public class CoalescingTest
+{
+	private static final int WORKERS   = 4;
+	private static final int PRODUCERS = 4;
+
+	public static void main(String[] args) throws Exception {
+		int jobs = args.length>0 ? Integer.parseInt(args[0]) : 100000;
+		paused(100);
+		race(jobs);
+		System.out.println("OK");
+		System.exit(0);
+	}
+
+	/**
+	 * Enqueue jobs with the same key while paused: only the last one must run, under the identifier of the first.
+	 */
+	private static void paused(int jobs) throws Exception {
+		Tracker tracker = new Tracker(jobs);
+		tracker.setWorkers(WORKERS);
+		tracker.start();
+		tracker.pause();
+		int first = 0;
+		for(int i=0; i<jobs; ++i) {
+			int id = tracker.exec(new Job(tracker, i), null, "key");
+			if(i == 0) first = id;
+			check(id == first, "job " + i + " got id " + id + " instead of " + first);
+		}
+		tracker.resume();
+		check(tracker.waitFor(first, 10000), "waitFor(" + first + ") timed out");
+		tracker.stop();
+		System.out.printf("paused: %d jobs with the same key, %d superseded, %d ran%n", jobs,
+			tracker.getStats().getSuperseded(), tracker.countRan());
+		check(tracker.ran.get(jobs-1) == 1, "the last job did not run");
+		check(tracker.countRan() == 1, tracker.countRan() + " jobs ran");
+		check(tracker.countSuperseded() == jobs-1, tracker.countSuperseded() + " jobs superseded");
+		check(tracker.getStats().getSuperseded() == jobs-1, "stats superseded " + tracker.getStats().getSuperseded());
+	}
+
+	/**
+	 * Replace the pending job of a key from its producer while the workers take the jobs, so that
+	 * <tt>Entry.replace</tt> races with the start of the same entry.
+	 */
+	private static void race(final int jobs) throws Exception {
+		final Tracker tracker = new Tracker(PRODUCERS * jobs);
+		tracker.setWorkers(WORKERS);
+		tracker.start();
+		Thread[] producers = new Thread[PRODUCERS];
+		for(int p=0; p<PRODUCERS; ++p) {
+			final int    base = p * jobs;
+			final String key  = "key-" + p;
+			producers[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i=0; i<jobs; ++i) {
+						tracker.exec(new Job(tracker, base+i), null, key);
+						// let the workers take the entries being replaced
+						if((i & 15) == 0) Thread.yield();
+					}
+				}
+			}, "producer-" + p);
+		}
+		for(Thread t : producers) t.start();
+		for(Thread t : producers) t.join();
+		int  total    = PRODUCERS * jobs;
+		long deadline = System.currentTimeMillis() + 10000;
+		while(tracker.countRan()+tracker.countSuperseded() < total && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		tracker.stop();
+		int ran = tracker.countRan(), superseded = tracker.countSuperseded();
+		System.out.printf("race: %d jobs on %d keys, %d superseded, %d ran%n", total, PRODUCERS, superseded, ran);
+		for(int i=0; i<total; ++i) {
+			int n = tracker.ran.get(i) + tracker.superseded.get(i);
+			check(n == 1, "job " + i + " ran " + tracker.ran.get(i) + " times and was superseded "
+				+ tracker.superseded.get(i) + " times");
+		}
+		for(int p=1; p<=PRODUCERS; ++p) check(tracker.ran.get(p*jobs - 1) == 1, "the last job of key-" + (p-1) + " did not run");
+		check(tracker.getStats().getSuperseded() == superseded, "stats superseded " + tracker.getStats().getSuperseded());
+	}
+
+	private static void check(boolean ok, String msg) {
+		if(ok) return;
+		System.err.println("FAILED: " + msg);
+		System.exit(1);
+	}
+
+	/**
+	 * @brief Spooler tracking which jobs run and which are superseded.
+	 */
+	private static final class Tracker extends Spooler
+	{
+		Tracker(int jobs) {
+			ran        = new AtomicIntegerArray(jobs);
+			superseded = new AtomicIntegerArray(jobs);
+		}
+
+		@Override
+		protected void onSupersede(Runnable job) {
+			superseded.incrementAndGet(((Job)job).n);
+		}
+
+		int countRan() {
+			return count(ran);
+		}
+
+		int countSuperseded() {
+			return count(superseded);
+		}
+
+		private static int count(AtomicIntegerArray a) {
+			int n = 0;
+			for(int i=0, len=a.length(); i<len; ++i) n += a.get(i);
+			return n;
+		}
+
+		final AtomicIntegerArray ran;
+		final AtomicIntegerArray superseded;
+	}
+
+	/**
+	 * @brief Numbered job.
+	 */
+	private static final class Job implements Runnable
+	{
+		Job(Tracker tracker, int n) {
+			this.tracker = tracker;
+			this.n       = n;
+		}
+
+		@Override
+		public void run() {
+			tracker.ran.incrementAndGet(n);
+		}
+
+		final Tracker tracker;
+		final int     n;
+	}
+}
@@ -0,0 +1,142 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * @brief Behavior test of the gzip and deflate codings of {@link Compression}.
+ * Bodies of several sizes must survive a round trip through {@link Compression#gzip(byte[], int)} and
+ * {@link Compression#decode(InputStream, String)}, interoperating with the gzip and zlib streams of the JDK, while a
+ * gzip body whose trailer is corrupt or truncated must be rejected.
+ * Run it with <tt>java com.cloudplugs.util.CompressionTest</tt>: it exits with status 1 on failure.
+ */
+public class CompressionTest
+{
+	private static final int[] SIZES = { 0, 1, 100, 8*1024, 8*1024+1, 200*1024 };
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(42);
+		for(int size : SIZES) {
+			byte[] data = body(random, size);
+			roundTrip(data);
+			corrupt(data);
+		}
+		check(decode(new byte[0], Compression.GZIP, false).length == 0, "empty gzip body not decoded as empty");
+		check(Compression.decode(new ByteArrayInputStream(new byte[1]), "br") instanceof ByteArrayInputStream,
+			"unsupported coding decoded");
+		System.out.println("OK: " + SIZES.length + " body sizes, gzip and deflate round trips, corrupt trailers rejected");
+		System.exit(0);
+	}
+
+	private static void roundTrip(byte[] data) throws Exception {
+		String what = data.length + " bytes";
+		byte[] gzip = Compression.gzip(data, 6);
+		check(Arrays.equals(decode(gzip, Compression.GZIP, false), data), "gzip round trip of " + what);
+		check(Arrays.equals(decode(gzip, "x-gzip", true), data), "gzip round trip of " + what + " read byte by byte");
+		check(Arrays.equals(readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))), data),
+			"gzip of " + what + " not readable by GZIPInputStream");
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		GZIPOutputStream gz = new GZIPOutputStream(buf);
+		gz.write(data);
+		gz.close();
+		check(Arrays.equals(decode(buf.toByteArray(), Compression.GZIP, false), data), "GZIPOutputStream body of " + what);
+
+		buf = new ByteArrayOutputStream();
+		DeflaterOutputStream def = new DeflaterOutputStream(buf);
+		def.write(data);
+		def.close();
+		check(Arrays.equals(decode(buf.toByteArray(), Compression.DEFLATE, false), data), "deflate round trip of " + what);
+		check(Arrays.equals(decode(buf.toByteArray(), " Deflate ", true), data), "deflate round trip of " + what
+			+ " read byte by byte");
+	}
+
+	/**
+	 * Corrupt the CRC, the size and the length of the trailer of a gzip body: each one must fail the read.
+	 */
+	private static void corrupt(byte[] data) throws Exception {
+		String what = data.length + " bytes";
+		byte[] gzip = Compression.gzip(data, 1);
+		byte[] bad  = gzip.clone();
+		bad[bad.length-8] ^= 1;
+		expect(bad, ZipException.class, "corrupt crc of " + what);
+		bad = gzip.clone();
+		bad[bad.length-4] ^= 1;
+		expect(bad, ZipException.class, "corrupt size of " + what);
+		expect(Arrays.copyOf(gzip, gzip.length-3), EOFException.class, "truncated trailer of " + what);
+	}
+
+	private static void expect(byte[] body, Class<? extends IOException> error, String what) throws Exception {
+		try {
+			decode(body, Compression.GZIP, false);
+		} catch(IOException e) {
+			check(error.isInstance(e), what + " failed with " + e);
+			return;
+		}
+		check(false, what + " accepted");
+	}
+
+	private static byte[] decode(byte[] body, String encoding, boolean byteByByte) throws IOException {
+		InputStream in = Compression.decode(new ByteArrayInputStream(body), encoding);
+		try {
+			if(!byteByByte) return readAll(in);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for(int c; (c = in.read()) != -1;) out.write(c);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		for(int n; (n = in.read(buf)) != -1;) out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return a JSON-like body, compressible but not trivially
+	 */
+	private static byte[] body(Random random, int size) {
+		byte[] res = new byte[size];
+		for(int i=0; i<size; ++i) res[i] = (byte)(random.nextInt(4)==0 ? ' ' + random.nextInt(95) : "{\"value\":1}".charAt(i % 11));
+		return res;
+	}
+
+	private static void check(boolean ok, String msg) {
+		if(ok) return;
+		System.err.println("FAILED: " + msg);
+		System.exit(1);
+	}
+}
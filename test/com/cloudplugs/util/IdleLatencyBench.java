@@ -0,0 +1,76 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief Latency benchmark of the idle strategies of {@link Spooler}.
+ * For each strategy, a single producer enqueues bursts of small jobs, letting the worker fall idle between the
+ * bursts, and the queue time of the jobs (from enqueue to start) is read from the spooler statistics.
+ * Run it with <tt>java com.cloudplugs.util.IdleLatencyBench [bursts] [jobs per burst]</tt>.
+ */
+public class IdleLatencyBench
+{
+	private static final String[] STRATEGIES = {
+		Spooler.IDLE_BLOCK, Spooler.IDLE_SPIN, Spooler.IDLE_SPIN_YIELD, Spooler.IDLE_SPIN_PARK
+	};
+	private static final long     PAUSE      = 10;
+
+	public static void main(String[] args) throws Exception {
+		int bursts = args.length>0 ? Integer.parseInt(args[0]) : 15;
+		int jobs   = args.length>1 ? Integer.parseInt(args[1]) : 1000;
+		System.out.println(bursts + " bursts of " + jobs + " empty jobs, " + PAUSE + " ms apart, queue time:");
+		for(String strategy : STRATEGIES) run(strategy, bursts, jobs);
+		System.exit(0);
+	}
+
+	private static void run(String strategy, int bursts, int jobs) throws Exception {
+		Spooler spooler = new Spooler();
+		spooler.setIdleStrategy(strategy);
+		spooler.start();
+		final AtomicInteger ran = new AtomicInteger();
+		Runnable job = new Runnable() {
+			@Override
+			public void run() {
+				ran.incrementAndGet();
+			}
+		};
+		burst(spooler, job, ran, jobs);
+		spooler.resetStats();
+		for(int i=0; i<bursts; ++i) burst(spooler, job, ran, jobs);
+		Histogram h = spooler.getStats().getQueueTime();
+		spooler.stop();
+		System.out.printf("  %-9s avg %6.3f ms  p50 %6.3f ms  p99 %6.3f ms  max %6.3f ms%n", strategy,
+			h.getMean() / 1e6, h.getP50() / 1e6, h.getP99() / 1e6, h.getMax() / 1e6);
+	}
+
+	/**
+	 * Enqueue a burst of jobs, wait for them to run, then let the worker fall idle.
+	 */
+	private static void burst(Spooler spooler, Runnable job, AtomicInteger ran, int jobs) throws Exception {
+		int target = ran.get() + jobs;
+		for(int i=0; i<jobs; ++i) spooler.exec(job);
+		while(ran.get() < target) Thread.yield();
+		Thread.sleep(PAUSE);
+	}
+}
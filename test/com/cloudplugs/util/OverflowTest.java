@@ -0,0 +1,234 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @brief Behavior test of the overflow policies of {@link Spooler}.
+ * For each policy, a paused spooler with a queue of 2 jobs is given 4 jobs: the jobs run, discarded, rejected or run by
+ * the producer must be exactly the ones the policy selects, and a blocked producer must be released by the room made
+ * by the workers or rejected at its timeout.
+ * Run it with <tt>java com.cloudplugs.util.OverflowTest</tt>: it exits with status 1 on failure.
+ */
+public class OverflowTest
+{
+	private static final int  CAPACITY = 2;
+	private static final int  JOBS     = 4;
+	private static final long TIMEOUT  = 100;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println(JOBS + " jobs enqueued in a paused spooler with a queue of " + CAPACITY + " jobs:");
+		drop(Spooler.OVERFLOW_DROP_NEWEST, "[0, 1]", "[2, 3]");
+		drop(Spooler.OVERFLOW_DROP_OLDEST, "[2, 3]", "[0, 1]");
+		reject();
+		callerRuns();
+		blockTimeout();
+		block();
+		System.out.println("OK");
+		System.exit(0);
+	}
+
+	/**
+	 * Fill the queue with a dropping policy, then check which jobs ran and which were discarded.
+	 */
+	private static void drop(String policy, String ran, String discarded) throws Exception {
+		Tracker tracker = paused(policy, 0);
+		for(int i=0; i<JOBS; ++i) {
+			int id = tracker.exec(new Job(tracker, i));
+			if(policy == Spooler.OVERFLOW_DROP_NEWEST)
+				check((id == Spooler.ID_NULL) == (i >= CAPACITY), policy + ": job " + i + " got id " + id);
+		}
+		tracker.resume();
+		tracker.awaitRan(CAPACITY);
+		tracker.stop();
+		report(policy, tracker);
+		check(tracker.ran().equals(ran), policy + ": ran " + tracker.ran() + " instead of " + ran);
+		check(tracker.discarded().equals(discarded), policy + ": discarded " + tracker.discarded() + " instead of " + discarded);
+		check(tracker.getStats().getDiscarded() == JOBS-CAPACITY, policy + ": stats discarded " + tracker.getStats().getDiscarded());
+		check(tracker.getOverflows() == JOBS-CAPACITY, policy + ": overflows " + tracker.getOverflows());
+	}
+
+	private static void reject() throws Exception {
+		Tracker tracker = paused(Spooler.OVERFLOW_REJECT, 0);
+		int rejected = 0;
+		for(int i=0; i<JOBS; ++i) {
+			try {
+				tracker.exec(new Job(tracker, i));
+			} catch(PlugException e) {
+				++rejected;
+			}
+		}
+		tracker.resume();
+		tracker.awaitRan(CAPACITY);
+		tracker.stop();
+		report(Spooler.OVERFLOW_REJECT, tracker);
+		check(rejected == JOBS-CAPACITY, "reject: " + rejected + " jobs rejected");
+		check(tracker.ran().equals("[0, 1]"), "reject: ran " + tracker.ran());
+	}
+
+	private static void callerRuns() throws Exception {
+		Tracker tracker = paused(Spooler.OVERFLOW_CALLER_RUNS, 0);
+		for(int i=0; i<JOBS; ++i) tracker.exec(new Job(tracker, i));
+		String early = tracker.ran();
+		tracker.resume();
+		tracker.awaitRan(JOBS);
+		tracker.stop();
+		report(Spooler.OVERFLOW_CALLER_RUNS, tracker);
+		check(early.equals("[2, 3]"), "callerRuns: ran " + early + " while paused");
+		check(tracker.ran().equals("[0, 1, 2, 3]"), "callerRuns: ran " + tracker.ran());
+		check(tracker.callerRan == JOBS-CAPACITY, "callerRuns: " + tracker.callerRan + " jobs ran in the producer thread");
+	}
+
+	/**
+	 * Block on a full queue of a paused spooler until the timeout rejects the job.
+	 */
+	private static void blockTimeout() throws Exception {
+		Tracker tracker = paused(Spooler.OVERFLOW_BLOCK, TIMEOUT);
+		for(int i=0; i<CAPACITY; ++i) tracker.exec(new Job(tracker, i));
+		long start = System.nanoTime();
+		boolean rejected = false;
+		try {
+			tracker.exec(new Job(tracker, CAPACITY));
+		} catch(PlugException e) {
+			rejected = true;
+		}
+		long waited = (System.nanoTime() - start) / 1000000;
+		tracker.resume();
+		tracker.awaitRan(CAPACITY);
+		tracker.stop();
+		System.out.printf("  %-10s producer rejected after %d ms%n", Spooler.OVERFLOW_BLOCK, waited);
+		check(rejected, "block: job not rejected at the timeout");
+		check(waited >= TIMEOUT-10, "block: rejected after " + waited + " ms");
+		check(tracker.ran().equals("[0, 1]"), "block: ran " + tracker.ran());
+	}
+
+	/**
+	 * Block a producer on a full queue of a paused spooler, then resume it: the producer must be released.
+	 */
+	private static void block() throws Exception {
+		final Tracker tracker = paused(Spooler.OVERFLOW_BLOCK, 0);
+		for(int i=0; i<CAPACITY; ++i) tracker.exec(new Job(tracker, i));
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i=CAPACITY; i<JOBS; ++i) tracker.exec(new Job(tracker, i));
+			}
+		});
+		producer.start();
+		producer.join(TIMEOUT);
+		boolean blocked = producer.isAlive();
+		tracker.resume();
+		producer.join(10000);
+		boolean released = !producer.isAlive();
+		tracker.awaitRan(JOBS);
+		tracker.stop();
+		report(Spooler.OVERFLOW_BLOCK, tracker);
+		check(blocked, "block: producer not blocked by a full queue");
+		check(released, "block: producer still blocked after the resume");
+		check(tracker.ran().equals("[0, 1, 2, 3]"), "block: ran " + tracker.ran());
+	}
+
+	private static Tracker paused(String policy, long timeout) {
+		Tracker tracker = new Tracker();
+		tracker.setCapacity(CAPACITY, policy, timeout);
+		tracker.start();
+		tracker.pause();
+		return tracker;
+	}
+
+	private static void report(String policy, Tracker tracker) {
+		System.out.printf("  %-10s ran %s, discarded %s%n", policy, tracker.ran(), tracker.discarded());
+	}
+
+	private static void check(boolean ok, String msg) {
+		if(ok) return;
+		System.err.println("FAILED: " + msg);
+		System.exit(1);
+	}
+
+	/**
+	 * @brief Spooler tracking which jobs run and which are discarded.
+	 */
+	private static final class Tracker extends Spooler
+	{
+		@Override
+		protected void onDiscard(Runnable job) {
+			synchronized(this) {
+				discarded.add(((Job)job).n);
+			}
+		}
+
+		synchronized void ran(int n) {
+			ran.add(n);
+			if(Thread.currentThread() == producer) ++callerRan;
+			notifyAll();
+		}
+
+		synchronized void awaitRan(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			for(long left; ran.size()<count && (left = deadline-System.currentTimeMillis()) > 0;) wait(left);
+			// give the jobs which should not run a chance to run anyway
+			wait(20);
+		}
+
+		synchronized String ran() {
+			return sorted(ran);
+		}
+
+		synchronized String discarded() {
+			return sorted(discarded);
+		}
+
+		private static String sorted(List<Integer> list) {
+			List<Integer> res = new ArrayList<Integer>(list);
+			Collections.sort(res);
+			return res.toString();
+		}
+
+		final Thread        producer  = Thread.currentThread();
+		final List<Integer> ran       = new ArrayList<Integer>();
+		final List<Integer> discarded = new ArrayList<Integer>();
+		int                 callerRan;
+	}
+
+	/**
+	 * @brief Numbered job.
+	 */
+	private static final class Job implements Runnable
+	{
+		Job(Tracker tracker, int n) {
+			this.tracker = tracker;
+			this.n       = n;
+		}
+
+		@Override
+		public void run() {
+			tracker.ran(n);
+		}
+
+		final Tracker tracker;
+		final int     n;
+	}
+}
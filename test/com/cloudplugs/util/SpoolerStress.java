@@ -0,0 +1,219 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief Contention benchmark and stress test of {@link Spooler}.
+ * It measures the enqueue throughput as the number of producers grows, then it checks that concurrent cancels never
+ * lose or run a cancelled job, that every worker runs again after a pause, with a single pause and resume
+ * notification, and that bursts of jobs keep all the workers busy after many sleep and wake-up cycles.
+ * Run it with <tt>java com.cloudplugs.util.SpoolerStress [jobs per producer]</tt>: it exits with status 1 on failure.
+ */
+public class SpoolerStress
+{
+	private static final int   WORKERS   = 4;
+	private static final int[] PRODUCERS = { 1, 2, 4, 8, 16 };
+
+	public static void main(String[] args) throws Exception {
+		int jobs = args.length>0 ? Integer.parseInt(args[0]) : 200000;
+		System.out.println("enqueue throughput, " + jobs + " empty jobs per producer, 1 worker:");
+		for(int producers : PRODUCERS) enqueue(producers, jobs);
+		cancel(8, jobs / 10);
+		pause();
+		churn(500);
+		System.out.println("OK");
+		System.exit(0);
+	}
+
+	/**
+	 * Enqueue empty jobs from many producers at the same time.
+	 */
+	private static void enqueue(int producers, final int jobs) throws Exception {
+		final Spooler spooler = new Spooler();
+		spooler.start();
+		final AtomicInteger ran   = new AtomicInteger();
+		final Runnable      job   = new Runnable() {
+			@Override
+			public void run() {
+				ran.incrementAndGet();
+			}
+		};
+		long elapsed = produce(producers, new Runnable() {
+			@Override
+			public void run() {
+				for(int i=0; i<jobs; ++i) spooler.exec(job);
+			}
+		});
+		int total = producers * jobs;
+		while(ran.get() < total) Thread.sleep(1);
+		spooler.stop();
+		System.out.printf("  %2d producers: %6.2f M enqueues/s%n", producers, total / (elapsed * 1e3));
+	}
+
+	/**
+	 * Enqueue jobs in a paused spooler while the producers cancel every other job, then check that exactly the jobs
+	 * not cancelled run and that waiting for any job returns.
+	 */
+	private static void cancel(int producers, final int jobs) throws Exception {
+		final Spooler spooler = new Spooler();
+		spooler.setWorkers(WORKERS);
+		spooler.start();
+		spooler.pause();
+		final AtomicInteger ran       = new AtomicInteger();
+		final AtomicInteger cancelled = new AtomicInteger();
+		final AtomicInteger wrong     = new AtomicInteger();
+		final int[][]       ids       = new int[producers][jobs];
+		final AtomicInteger next      = new AtomicInteger();
+		produce(producers, new Runnable() {
+			@Override
+			public void run() {
+				int[] mine = ids[next.getAndIncrement()];
+				for(int i=0; i<jobs; ++i) {
+					final boolean cancel = (i & 1) == 0;
+					mine[i] = spooler.exec(new Runnable() {
+						@Override
+						public void run() {
+							if(cancel) wrong.incrementAndGet();
+							ran.incrementAndGet();
+						}
+					});
+					if(cancel && spooler.cancel(mine[i])) cancelled.incrementAndGet();
+				}
+			}
+		});
+		spooler.resume();
+		for(int[] mine : ids)
+			for(int id : mine)
+				check(spooler.waitFor(id, 10000), "waitFor(" + id + ") timed out");
+		int total = producers * jobs;
+		spooler.stop();
+		System.out.printf("cancel: %d jobs from %d producers, %d cancelled, %d ran%n", total, producers, cancelled.get(), ran.get());
+		check(cancelled.get() == total/2, "cancelled " + cancelled.get() + " of " + total/2);
+		check(wrong.get() == 0, wrong.get() + " cancelled jobs ran");
+		check(ran.get() == total - cancelled.get(), "ran " + ran.get() + " of " + (total - cancelled.get()));
+	}
+
+	/**
+	 * Pause a spooler with idle workers, enqueue a job per worker, then check that they all run at the same time after
+	 * the resume and that the listener is notified once.
+	 */
+	private static void pause() throws Exception {
+		final AtomicInteger pauses  = new AtomicInteger();
+		final AtomicInteger resumes = new AtomicInteger();
+		Spooler spooler = new Spooler(new Listener.Stub() {
+			@Override
+			public void onPause() {
+				pauses.incrementAndGet();
+			}
+			@Override
+			public void onResume() {
+				resumes.incrementAndGet();
+			}
+		});
+		spooler.setWorkers(WORKERS);
+		spooler.start();
+		Thread.sleep(50);
+		spooler.pause();
+		Concurrency concurrency = new Concurrency(WORKERS, 100);
+		for(int i=0; i<WORKERS; ++i) spooler.exec(concurrency);
+		Thread.sleep(100);
+		check(concurrency.ran.get() == 0, "jobs ran while paused");
+		spooler.resume();
+		concurrency.done.await();
+		spooler.stop();
+		System.out.printf("pause: %d of %d workers ran after resume, %d pause and %d resume notifications%n",
+			concurrency.peak.get(), WORKERS, pauses.get(), resumes.get());
+		check(concurrency.peak.get() == WORKERS, "only " + concurrency.peak.get() + " workers ran after resume");
+		check(pauses.get()==1 && resumes.get()==1, "pause/resume notified " + pauses.get() + '/' + resumes.get() + " times");
+	}
+
+	/**
+	 * Enqueue bursts of a job per worker, letting the workers fall asleep between the bursts, and check that the
+	 * last bursts still run on all the workers.
+	 */
+	private static void churn(int rounds) throws Exception {
+		Spooler spooler = new Spooler();
+		spooler.setWorkers(WORKERS);
+		spooler.start();
+		int peak = 0;
+		for(int round=0; round<rounds; ++round) {
+			Concurrency concurrency = new Concurrency(WORKERS, 2);
+			for(int i=0; i<WORKERS; ++i) spooler.exec(concurrency);
+			concurrency.done.await();
+			if(round >= rounds-20) peak = Math.max(peak, concurrency.peak.get());
+			if((round & 3) == 0) Thread.sleep(1);
+		}
+		spooler.stop();
+		System.out.printf("churn: %d bursts, peak concurrency of the last 20 bursts %d of %d workers%n", rounds, peak, WORKERS);
+		check(peak == WORKERS, "workers lost after " + rounds + " bursts");
+	}
+
+	/**
+	 * Run the same action in many threads started at the same time.
+	 * @return the milliseconds elapsed until all the threads finished
+	 */
+	private static long produce(int producers, Runnable action) throws Exception {
+		Thread[] threads = new Thread[producers];
+		for(int i=0; i<producers; ++i) threads[i] = new Thread(action, "producer-" + i);
+		long start = System.nanoTime();
+		for(Thread t : threads) t.start();
+		for(Thread t : threads) t.join();
+		return Math.max((System.nanoTime() - start) / 1000000, 1);
+	}
+
+	private static void check(boolean ok, String msg) {
+		if(ok) return;
+		System.err.println("FAILED: " + msg);
+		System.exit(1);
+	}
+
+	/**
+	 * @brief Job sleeping for a while, tracking how many copies of it run at the same time.
+	 */
+	private static final class Concurrency implements Runnable
+	{
+		Concurrency(int count, long millis) {
+			this.done   = new CountDownLatch(count);
+			this.millis = millis;
+		}
+
+		@Override
+		public void run() {
+			int n = running.incrementAndGet();
+			for(int p; (p = peak.get()) < n && !peak.compareAndSet(p, n););
+			ran.incrementAndGet();
+			try { Thread.sleep(millis); }
+			catch(InterruptedException e) {}
+			running.decrementAndGet();
+			done.countDown();
+		}
+
+		final CountDownLatch done;
+		final long           millis;
+		final AtomicInteger  running = new AtomicInteger();
+		final AtomicInteger  peak    = new AtomicInteger();
+		final AtomicInteger  ran     = new AtomicInteger();
+	}
+}